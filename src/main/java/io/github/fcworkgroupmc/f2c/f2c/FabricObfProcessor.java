@@ -17,127 +17,509 @@
 
 package io.github.fcworkgroupmc.f2c.f2c;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import cpw.mods.modlauncher.Launcher;
 import cpw.mods.modlauncher.api.IEnvironment;
 import cpw.mods.modlauncher.api.INameMappingService;
+import io.github.fcworkgroupmc.f2c.f2c.remapping.AccessWidenerRemapper;
+import io.github.fcworkgroupmc.f2c.f2c.remapping.ConstantPoolRemapper;
+import io.github.fcworkgroupmc.f2c.f2c.remapping.ConstantPoolScanner;
+import io.github.fcworkgroupmc.f2c.f2c.remapping.RefMapRemapper;
+import io.github.fcworkgroupmc.f2c.f2c.util.HashUtil;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipWriter;
+import net.fabricmc.loader.launch.common.FabricLauncherBase;
+import net.fabricmc.loader.transformer.ClassStripper;
+import net.fabricmc.loader.transformer.EnvironmentStrippingData;
 import net.minecraftforge.fml.loading.FMLEnvironment;
 import net.minecraftforge.fml.loading.FMLPaths;
 import net.minecraftforge.fml.loading.progress.StartupMessageManager;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.Remapper;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.lang.reflect.Method;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
-import java.util.zip.ZipEntry;
 
 import static io.github.fcworkgroupmc.f2c.f2c.Metadata.F2C_DIR;
 
 public class FabricObfProcessor {
 	private static final Logger LOGGER = LogManager.getLogger();
 	public static final FabricModRemapper REMAPPER = new FabricModRemapper();
-	private static void processJar(JarFile input, JarOutputStream output) throws IOException {
-		JsonObject fabricJson = new JsonParser().parse(new InputStreamReader(input.getInputStream(input.getEntry(Metadata.FABRIC_MOD_DEF)), StandardCharsets.UTF_8)).getAsJsonObject();
-		List<String> refMapPaths = Collections.emptyList();
-		if(fabricJson.has("mixins"))
-			refMapPaths = StreamSupport.stream(fabricJson.getAsJsonArray("mixins").spliterator(), false)
-					.map(element -> { try {
-						return new JsonParser().parse(new InputStreamReader(input.getInputStream(input.getEntry(element.getAsString())), StandardCharsets.UTF_8)).getAsJsonObject();
-					} catch(IOException e){throw new IllegalStateException(e);}}).filter(obj -> obj.has("refmap"))
-					.map(obj -> obj.get("refmap").getAsString()).collect(Collectors.toList());
-		Enumeration<JarEntry> entries = input.entries();
-		while(entries.hasMoreElements()) {
-			JarEntry entry = entries.nextElement();
-			output.putNextEntry(new JarEntry(entry.getName()));
-			if(!entry.isDirectory()) {
-				if(refMapPaths.contains(entry.getName())) {
-					JsonObject object = REMAPPER.mapRefMap(new JsonParser().parse(new InputStreamReader(input.getInputStream(entry), StandardCharsets.UTF_8)).getAsJsonObject());
-					output.write(object.toString().getBytes());
-				} else if(entry.getName().endsWith(".class")) {
-					ClassReader reader = new ClassReader(input.getInputStream(entry));
-					ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
-					reader.accept(new ClassRemapper(writer, REMAPPER), 0);
-					output.write(writer.toByteArray());
-				} else if(entry.getName().endsWith(Metadata.JAR_SUFFIX)) {
-					try (JarInputStream innerStream = new JarInputStream(input.getInputStream(entry));
-					     ByteArrayOutputStream baos = new ByteArrayOutputStream();
-					     JarOutputStream out = new JarOutputStream(baos)) {
-						LOGGER.debug("Processing inner jar {}", entry.getName());
-						processInnerJar(innerStream, out);
-						out.finish();
-						output.write(baos.toByteArray());
+	private static final boolean COMPRESS = !Metadata.PROCESSED_FORMAT.equals("stored");
+	/** classes are left as they are, to be remapped when loaded by {@link io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.LazyRemapLaunchPlugin} */
+	public static final boolean LAZY = Metadata.REMAP_MODE.equals("lazy");
+	/**
+	 * Lists, one internal name per line, the classes of a processed jar that still need
+	 * {@link io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.F2CLaunchPlugin} when they are loaded.
+	 * The other classes had their {@code @Environment} members stripped ahead of time.
+	 */
+	public static final String RUNTIME_CLASS_INDEX = "META-INF/f2c-runtime-classes.txt";
+	/**
+	 * Version of the jars written by {@link #processJar(Path, Path)}, part of the keys of the processed jars.
+	 * Bump it whenever the content of the processed jars changes, so the jars processed before are not reused.
+	 */
+	public static final int OUTPUT_VERSION = 1;
+	private static String naming;
+	private static String envType;
+	private static Path workDir;
+	/**
+	 * Processes mods for the given naming and environment type instead of those of the running game, see {@link PreBake}.
+	 * @param workDir the directory for temporary files
+	 */
+	public static void configure(String naming, String envType, Path workDir) {
+		FabricObfProcessor.naming = naming;
+		FabricObfProcessor.envType = envType;
+		FabricObfProcessor.workDir = workDir;
+	}
+	/**
+	 * @return the naming mods are remapped to
+	 */
+	public static String getNaming() {
+		return naming != null ? naming : FMLEnvironment.naming;
+	}
+	private static String getEnvType() {
+		return envType != null ? envType : FabricLauncherBase.getLauncher().getEnvironmentType().toString();
+	}
+	private static final ConstantPoolRemapper CONSTANT_POOL_REMAPPER = Metadata.REMAP_ENGINE.equalsIgnoreCase("constantpool") ?
+			new ConstantPoolRemapper(REMAPPER) : null;
+	private static List<String> readRefMapPaths(ZipReader input) throws IOException {
+		ZipReader.Entry modDef = input.getEntry(Metadata.FABRIC_MOD_DEF);
+		JsonObject fabricJson = modDef == null ? new JsonObject() : readJson(input, modDef);
+		if(!fabricJson.has("mixins")) return Collections.emptyList();
+		return StreamSupport.stream(fabricJson.getAsJsonArray("mixins").spliterator(), false)
+				.map(element -> input.getEntry(element.getAsString())).filter(Objects::nonNull)
+				.map(entry -> { try {
+					return readJson(input, entry);
+				} catch(IOException e){throw new IllegalStateException(e);}}).filter(obj -> obj.has("refmap"))
+				.map(obj -> obj.get("refmap").getAsString()).collect(Collectors.toList());
+	}
+	private static String readAccessWidenerPath(ZipReader input) throws IOException {
+		ZipReader.Entry modDef = input.getEntry(Metadata.FABRIC_MOD_DEF);
+		if(modDef == null) return null;
+		JsonObject fabricJson = readJson(input, modDef);
+		return fabricJson.has("accessWidener") ? fabricJson.get("accessWidener").getAsString() : null;
+	}
+	/**
+	 * @return whether processing would change anything in the jar: it has a refmap or an access widener, a class referencing intermediary names
+	 * or using {@code @Environment} unless classes are remapped lazily, or a nested jar that needs processing
+	 */
+	private static boolean needsProcessing(ZipReader input) throws IOException {
+		List<String> refMapPaths = readRefMapPaths(input);
+		for(String refMapPath : refMapPaths) if(input.getEntry(refMapPath) != null) return true;
+		String accessWidenerPath = readAccessWidenerPath(input);
+		if(accessWidenerPath != null && input.getEntry(accessWidenerPath) != null) return true;
+		for(ZipReader.Entry entry : input.entries()) {
+			if(isClass(entry, refMapPaths)) {
+				if(!LAZY && ConstantPoolScanner.scan(input.readAllBytes(entry)) != 0) return true;
+			} else if(isInnerJar(entry)) {
+				long reserved = entry.getSize();
+				if(!reserveInnerJarMemory(reserved)) return true; // too large to scan in memory, process it to be safe
+				try(ZipReader inner = new ZipReader(input.readAllBytes(entry))) {
+					if(needsProcessing(inner)) return true;
+				} finally {
+					innerJarMemory.addAndGet(reserved);
+				}
+			}
+		}
+		return false;
+	}
+	private static void processJar(ZipReader input, ZipWriter output) throws IOException {
+		List<String> refMapPaths = readRefMapPaths(input);
+		List<ZipReader.Entry> entries = input.entries();
+		ForkJoinTask<?>[] remapTasks = new ForkJoinTask<?>[entries.size()];
+		int submitted = 0;
+		String accessWidenerPath = readAccessWidenerPath(input);
+		String stripEnvType = LAZY ? null : getEnvType();
+		List<String> runtimeClasses = new ArrayList<>();
+		boolean deflate = output.isCompressing();
+		AtomicBoolean aborted = new AtomicBoolean();
+		try {
+			for(int i = 0; i < entries.size(); i++) {
+				ZipReader.Entry entry = entries.get(i);
+				if(Metadata.PARALLEL_REMAP && !LAZY) { // remap and deflate the class entries ahead of the writer, the results are still written in entry order
+					for(; submitted < entries.size() && submitted <= i + Metadata.REMAP_WINDOW; submitted++) {
+						ZipReader.Entry ahead = entries.get(submitted);
+						if(isClass(ahead, refMapPaths))
+							remapTasks[submitted] = ForkJoinPool.commonPool().submit(() -> {
+								if(aborted.get()) return null;
+								ProcessedClass processed = processClass(input.readAllBytes(ahead), stripEnvType);
+								return deflate && processed.bytes != null ? processed.deflate() : processed; // leave the writer only appending
+							});
 					}
-				} else {
-					ByteArrayOutputStream baos = new ByteArrayOutputStream();
-					IOUtils.copyLarge(input.getInputStream(entry), baos);
-					output.write(baos.toByteArray());
 				}
+				if(entry.getName().equals(RUNTIME_CLASS_INDEX)) {
+					continue; // written again below
+				} else if(entry.isDirectory()) {
+					output.writeDirectory(entry.getName(), entry.getDosTime());
+				} else if(refMapPaths.contains(entry.getName())) {
+					output.write(entry.getName(), new RefMapRemapper(REMAPPER, getNaming()).remap(input.readAllBytes(entry)), entry.getDosTime());
+				} else if(entry.getName().equals(accessWidenerPath)) {
+					output.write(entry.getName(), new AccessWidenerRemapper(REMAPPER, getNaming()).remap(input.readAllBytes(entry)), entry.getDosTime());
+				} else if(isClass(entry, refMapPaths) && LAZY) {
+					output.copy(input, entry);
+				} else if(isClass(entry, refMapPaths)) {
+					ProcessedClass processed;
+					if(remapTasks[i] != null) {
+						processed = join(remapTasks[i]);
+						remapTasks[i] = null;
+					} else processed = processClass(input.readAllBytes(entry), stripEnvType);
+					if(processed.deflated != null) output.write(entry.getName(), processed.deflated, entry.getDosTime());
+					else if(processed.bytes != null) output.write(entry.getName(), processed.bytes, entry.getDosTime());
+					else output.copy(input, entry); // nothing to remap or strip
+					if(processed.runtime) runtimeClasses.add(entry.getName().substring(0, entry.getName().length() - 6));
+				} else if(isInnerJar(entry)) {
+					LOGGER.debug("Processing inner jar {}", entry.getName());
+					processInnerJar(input, entry, output);
+				} else { // untouched entry, copy the compressed data as-is
+					output.copy(input, entry);
+				}
+			}
+			if(!LAZY) output.write(RUNTIME_CLASS_INDEX, String.join("\n", runtimeClasses).getBytes(StandardCharsets.UTF_8), ZipWriter.DOS_EPOCH);
+		} finally {
+			// the input must not be closed while a task still reads it, and cancelling a running task does not wait for it,
+			// so the tasks not started yet return at once and the running ones are waited for
+			aborted.set(true);
+			for(ForkJoinTask<?> task : remapTasks) {
+				if(task != null) task.quietlyJoin();
 			}
-			output.closeEntry();
-			output.flush();
 		}
 	}
+	private static JsonObject readJson(ZipReader input, ZipReader.Entry entry) throws IOException {
+		try(InputStreamReader reader = new InputStreamReader(input.getInputStream(entry), StandardCharsets.UTF_8)) {
+			return new JsonParser().parse(reader).getAsJsonObject();
+		}
+	}
+	private static boolean isClass(ZipReader.Entry entry, List<String> refMapPaths) {
+		return !entry.isDirectory() && entry.getName().endsWith(".class") && !refMapPaths.contains(entry.getName());
+	}
+	private static boolean isInnerJar(ZipReader.Entry entry) {
+		return !entry.isDirectory() && entry.getName().endsWith(Metadata.JAR_SUFFIX);
+	}
+	/**
+	 * @return the remapped class, or {@code null} if it references no intermediary names and can be copied as-is
+	 */
+	public static byte[] remapClass(byte[] bytes) {
+		if(!ConstantPoolScanner.hasIntermediaryNames(bytes)) return null;
+		return remapScannedClass(bytes);
+	}
+	private static byte[] remapScannedClass(byte[] bytes) {
+		if(CONSTANT_POOL_REMAPPER != null) {
+			byte[] remapped = CONSTANT_POOL_REMAPPER.remap(bytes);
+			if(remapped != null) {
+				if(!Metadata.VERIFY_REMAP_ENGINE) return remapped;
+				byte[] expected = remapClassWithAsm(bytes);
+				if(ConstantPoolRemapper.isEquivalent(remapped, expected)) return remapped;
+				LOGGER.warn("Constant pool remapping of {} differs from ASM, using the ASM result", new ClassReader(bytes).getClassName());
+				return expected;
+			}
+		}
+		return remapClassWithAsm(bytes);
+	}
+	private static byte[] remapClassWithAsm(byte[] bytes) {
+		ClassReader reader = new ClassReader(bytes);
+		ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+		reader.accept(new ClassRemapper(writer, REMAPPER), 0);
+		return writer.toByteArray();
+	}
+	/**
+	 * Remaps a class and strips the members {@code @Environment} excludes from the given environment type.
+	 * A class that is excluded entirely, or that cannot be analysed, is only remapped and left to be handled when loaded.
+	 */
+	private static ProcessedClass processClass(byte[] bytes, String stripEnvType) {
+		int flags = ConstantPoolScanner.scan(bytes);
+		boolean remap = (flags & ConstantPoolScanner.INTERMEDIARY) != 0;
+		if((flags & ConstantPoolScanner.ENVIRONMENT) != 0) {
+			ClassReader reader;
+			EnvironmentStrippingData stripData;
+			try {
+				reader = new ClassReader(bytes);
+				stripData = new EnvironmentStrippingData(Opcodes.ASM6, stripEnvType);
+				reader.accept(stripData, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			} catch (RuntimeException e) {
+				LOGGER.debug("Cannot read the @Environment annotations of a class, leaving them to runtime", e);
+				return new ProcessedClass(remap ? remapScannedClass(bytes) : null, true);
+			}
+			if(stripData.stripEntireClass()) // refused when loaded
+				return new ProcessedClass(remap ? remapScannedClass(bytes) : null, true);
+			if(!stripData.isEmpty()) {
+				ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+				ClassVisitor visitor = remap ? new ClassRemapper(writer, REMAPPER) : writer;
+				reader.accept(new ClassStripper(Opcodes.ASM6, visitor, stripData.getStripInterfaces(), stripData.getStripFields(), stripData.getStripMethods()), 0);
+				return new ProcessedClass(writer.toByteArray(), false);
+			}
+		}
+		return new ProcessedClass(remap ? remapScannedClass(bytes) : null, false);
+	}
+	private static ProcessedClass join(ForkJoinTask<?> task) throws IOException {
+		try {
+			return (ProcessedClass) task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while remapping classes");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Error remapping class", e.getCause());
+		}
+	}
+	/**
+	 * Processes a Fabric mod jar. The output only depends on the input and the mappings: entries keep their order and timestamps,
+	 * and generated entries use {@link ZipWriter#DOS_EPOCH}, so instances sharing a cache directory produce identical jars.
+	 */
 	public static void processJar(Path input, Path output) {
 		LOGGER.debug("Processing {}", input.getFileName());
 		StartupMessageManager.addModMessage("Processing Fabric mod obf: " + input.getFileName());
-		try(JarFile jarFile = new JarFile(input.toFile())) {
+		try(ZipReader reader = ZipReader.open(input)) {
+			if(COMPRESS && !needsProcessing(reader)) {
+				LOGGER.debug("Nothing to remap in {}, copying it", input.getFileName());
+				Files.copy(input, output, StandardCopyOption.REPLACE_EXISTING);
+				return;
+			}
 			if(Files.notExists(output)) Files.createFile(output);
-			try(JarOutputStream outputJar = new JarOutputStream(Files.newOutputStream(output))) {
-				processJar(jarFile, outputJar);
+			try(ZipWriter writer = new ZipWriter(Files.newOutputStream(output), COMPRESS)) {
+				processJar(reader, writer);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException("Error early processing the Fabric mod file", e);
 		}
 	}
-	public static void processInnerJar(JarInputStream in, JarOutputStream out) throws IOException {
-		Path temp = Launcher.INSTANCE.environment().getProperty(IEnvironment.Keys.GAMEDIR.get()).orElse(FMLPaths.GAMEDIR.get()).resolve(F2C_DIR).resolve("tempInner");
+	/**
+	 * Processes a nested jar in memory and writes it uncompressed, its entries being compressed already.
+	 * A nested jar with nothing to remap is copied as it is, and identical nested jars are only processed once.
+	 * When the nested jars being processed would use more than {@link Metadata#INNER_JAR_MEMORY} bytes, temporary files are used instead.
+	 */
+	private static void processInnerJar(ZipReader outer, ZipReader.Entry entry, ZipWriter output) throws IOException {
+		long reserved = entry.getSize();
+		if(reserveInnerJarMemory(reserved)) {
+			try {
+				byte[] bytes = outer.readAllBytes(entry);
+				long outputSize = processedSize(bytes);
+				if(reserveInnerJarMemory(outputSize)) {
+					reserved += outputSize;
+					ProcessedInnerJar processed = processInnerJar(entry.getName(), bytes);
+					if(processed == ProcessedInnerJar.UNCHANGED) output.copy(outer, entry);
+					else output.writeRaw(entry.getName(), ZipEntry.STORED, processed.crc, processed.length, entry.getDosTime(),
+							ByteBuffer.wrap(processed.data, 0, processed.length));
+					return;
+				}
+			} finally {
+				innerJarMemory.addAndGet(reserved);
+			}
+		}
+		Path temp = (workDir != null ? workDir : Launcher.INSTANCE.environment().getProperty(IEnvironment.Keys.GAMEDIR.get())
+				.orElse(FMLPaths.GAMEDIR.get()).resolve(F2C_DIR)).resolve("tempInner");
 		if(Files.notExists(temp)) Files.createDirectories(temp);
-		Path tempJar = temp.resolve(UUID.randomUUID().toString().replace("-", "") + ".temp");
-		Files.deleteIfExists(tempJar);
-		Files.createFile(tempJar);
-
-		try(OutputStream os = Files.newOutputStream(tempJar);
-			JarOutputStream tempOut = new JarOutputStream(os)) {
-			for(JarEntry entry = in.getNextJarEntry(); entry != null; entry = in.getNextJarEntry()) {
-				tempOut.putNextEntry(new ZipEntry(entry.getName()));
-
-				if(!entry.isDirectory()) IOUtils.copyLarge(in, tempOut);
-
-				tempOut.closeEntry();
-				tempOut.flush();
+		String tempName = UUID.randomUUID().toString().replace("-", "");
+		Path tempIn = temp.resolve(tempName + ".temp");
+		Path tempOut = temp.resolve(tempName + ".out.temp");
+		try {
+			try(InputStream in = outer.getInputStream(entry)) {
+				Files.copy(in, tempIn, StandardCopyOption.REPLACE_EXISTING);
 			}
+			try(ZipReader input = ZipReader.open(tempIn)) {
+				if(!needsProcessing(input)) {
+					LOGGER.debug("Nothing to remap in inner jar {}, copying it", entry.getName());
+					output.copy(outer, entry);
+					return;
+				}
+				try(ZipWriter writer = new ZipWriter(Files.newOutputStream(tempOut), COMPRESS)) {
+					processJar(input, writer);
+				}
+			}
+			output.writeStored(entry.getName(), tempOut, entry.getDosTime());
+		} finally { // the input is unmapped already, a failed deletion only leaves a temporary file behind
+			deleteTemp(tempIn);
+			deleteTemp(tempOut);
 		}
-		try(JarFile input = new JarFile(tempJar.toFile())) {
-			processJar(input, out);
+	}
+	/**
+	 * @return about the size of a nested jar once processed: its own size, or the size of its entries inflated as well when they are stored
+	 */
+	private static long processedSize(byte[] jar) throws IOException {
+		if(COMPRESS) return jar.length;
+		long size = jar.length; // the headers and the entries stored already
+		try(ZipReader reader = new ZipReader(jar)) {
+			for(ZipReader.Entry entry : reader.entries()) size += entry.getSize();
+		}
+		return size;
+	}
+	private static void deleteTemp(Path temp) {
+		try {
+			Files.deleteIfExists(temp);
+		} catch (IOException e) {
+			LOGGER.warn("Cannot delete temporary file {}", temp, e);
+		}
+	}
+	/** processed nested jars by the hash of their content, shared by every mod bundling them */
+	private static final Cache<String, ProcessedInnerJar> processedInnerJars = CacheBuilder.newBuilder()
+			.maximumWeight(Metadata.INNER_JAR_CACHE).weigher((String hash, ProcessedInnerJar jar) -> jar.data.length).build(); // the whole buffer is kept
+	private static ProcessedInnerJar processInnerJar(String name, byte[] bytes) throws IOException {
+		boolean[] processed = new boolean[1];
+		try {
+			ProcessedInnerJar result = processedInnerJars.get(HashUtil.sha256(bytes), () -> {
+				processed[0] = true;
+				try(ZipReader input = new ZipReader(bytes)) {
+					if(!needsProcessing(input)) {
+						LOGGER.debug("Nothing to remap in inner jar {}, copying it", name);
+						return ProcessedInnerJar.UNCHANGED;
+					}
+					InnerJarBuffer buffer = new InnerJarBuffer(bytes.length);
+					try(ZipWriter writer = new ZipWriter(buffer, COMPRESS)) {
+						processJar(input, writer);
+					}
+					return buffer.toProcessedInnerJar();
+				}
+			});
+			if(!processed[0]) LOGGER.debug("Reusing processed inner jar {}", name);
+			return result;
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Error processing inner jar " + name, e.getCause());
+		}
+	}
+	/**
+	 * Reads the classes of a processed jar and of the jars nested in it.
+	 * @param classes receives the internal name of every class
+	 * @param runtimeClasses receives the internal names listed by the {@link #RUNTIME_CLASS_INDEX runtime class indexes},
+	 *                       and every class of a jar without one, such as a jar copied as it is or processed by an older version
+	 */
+	public static void readClasses(ZipReader reader, Consumer<String> classes, Consumer<String> runtimeClasses) throws IOException {
+		boolean indexed = reader.getEntry(RUNTIME_CLASS_INDEX) != null;
+		for(ZipReader.Entry entry : reader.entries()) {
+			if(entry.isDirectory()) continue;
+			String name = entry.getName();
+			if(name.endsWith(".class")) {
+				String className = name.substring(0, name.length() - 6);
+				classes.accept(className);
+				if(!indexed) runtimeClasses.accept(className);
+			} else if(name.equals(RUNTIME_CLASS_INDEX)) {
+				for(String line : new String(reader.readAllBytes(entry), StandardCharsets.UTF_8).split("\n"))
+					if(!line.isEmpty()) runtimeClasses.accept(line);
+			} else if(name.endsWith(Metadata.JAR_SUFFIX)) {
+				try(ZipReader inner = entry.getMethod() == ZipEntry.STORED ? new ZipReader(reader.getRawData(entry)) :
+						new ZipReader(reader.readAllBytes(entry))) {
+					readClasses(inner, classes, runtimeClasses);
+				}
+			}
+		}
+	}
+	private static final AtomicLong innerJarMemory = new AtomicLong(Metadata.INNER_JAR_MEMORY);
+	private static boolean reserveInnerJarMemory(long bytes) {
+		if(bytes > Integer.MAX_VALUE - 8) return false;
+		for(long available = innerJarMemory.get(); available >= bytes; available = innerJarMemory.get())
+			if(innerJarMemory.compareAndSet(available, available - bytes)) return true;
+		return false;
+	}
+	private static class InnerJarBuffer extends ByteArrayOutputStream {
+		InnerJarBuffer(int size) {
+			super(Math.max(32, size));
+		}
+		ProcessedInnerJar toProcessedInnerJar() { // no copy of the buffer
+			CRC32 crc = new CRC32();
+			crc.update(buf, 0, count);
+			return new ProcessedInnerJar(buf, count, crc.getValue());
+		}
+	}
+	private static class ProcessedClass {
+		/** {@code null} if the class is unchanged, or deflated already */
+		final byte[] bytes;
+		/** whether the class still needs to be handled when loaded */
+		final boolean runtime;
+		/** the bytes deflated by the task which processed the class, if any */
+		final ZipWriter.Deflated deflated;
+		ProcessedClass(byte[] bytes, boolean runtime) {
+			this(bytes, runtime, null);
+		}
+		private ProcessedClass(byte[] bytes, boolean runtime, ZipWriter.Deflated deflated) {
+			this.bytes = bytes;
+			this.runtime = runtime;
+			this.deflated = deflated;
+		}
+		ProcessedClass deflate() {
+			return new ProcessedClass(null, runtime, ZipWriter.deflate(bytes));
+		}
+	}
+	private static class ProcessedInnerJar {
+		static final ProcessedInnerJar UNCHANGED = new ProcessedInnerJar(new byte[0], 0, 0);
+		final byte[] data;
+		final int length;
+		final long crc;
+		ProcessedInnerJar(byte[] data, int length, long crc) {
+			this.data = data;
+			this.length = length;
+			this.crc = crc;
 		}
-
-		Files.deleteIfExists(tempJar);
 	}
 	public static class FabricModRemapper extends Remapper {
 		private static final BiFunction<INameMappingService.Domain, String, String> remapFunc = Metadata.remapFunc;
+		// Descriptors and signatures repeat across every class of every mod, so their remapped forms are shared by all jars
+		private final Cache<String, String> descCache = newDescriptorCache();
+		private final Cache<String, String> methodDescCache = newDescriptorCache();
+		private final Cache<String, String> signatureCache = newDescriptorCache();
+		private final Cache<String, String> typeSignatureCache = newDescriptorCache();
+		private static Cache<String, String> newDescriptorCache() {
+			return CacheBuilder.newBuilder().maximumSize(Metadata.DESCRIPTOR_CACHE_SIZE).recordStats().build();
+		}
+		@Override
+		public String mapDesc(String descriptor) {
+			String mapped = descCache.getIfPresent(descriptor);
+			if(mapped == null) descCache.put(descriptor, mapped = super.mapDesc(descriptor));
+			return mapped;
+		}
+		@Override
+		public String mapMethodDesc(String methodDescriptor) {
+			String mapped = methodDescCache.getIfPresent(methodDescriptor);
+			if(mapped == null) methodDescCache.put(methodDescriptor, mapped = super.mapMethodDesc(methodDescriptor));
+			return mapped;
+		}
+		@Override
+		public String mapSignature(String signature, boolean typeSignature) {
+			if(signature == null) return null;
+			Cache<String, String> cache = typeSignature ? typeSignatureCache : signatureCache;
+			String mapped = cache.getIfPresent(signature);
+			if(mapped == null) cache.put(signature, mapped = super.mapSignature(signature, typeSignature));
+			return mapped;
+		}
+		/**
+		 * @return the combined statistics of the descriptor and signature caches
+		 */
+		public CacheStats getDescriptorCacheStats() {
+			return descCache.stats().plus(methodDescCache.stats()).plus(signatureCache.stats()).plus(typeSignatureCache.stats());
+		}
 		@Override
 		public String mapMethodName(String owner, String name, String descriptor) {
 			return remapFunc.apply(INameMappingService.Domain.METHOD, name);
@@ -150,68 +532,46 @@ public class FabricObfProcessor {
 		public String map(String internalName) {
 			return remapFunc.apply(INameMappingService.Domain.CLASS, internalName);
 		}
-		private JsonObject mapRefMap(JsonObject object) {
-			try {
-				Method deepCopy = JsonObject.class.getDeclaredMethod("deepCopy");
-				deepCopy.setAccessible(true);
-
-				JsonObject mapped = new JsonObject();
-
-				JsonObject mappings = (JsonObject) deepCopy.invoke(object.get("mappings").getAsJsonObject());
-				JsonObject mappingsMapped = new JsonObject();
-				mappings.entrySet().forEach(entry -> {
-					JsonObject value = new JsonObject();
-					entry.getValue().getAsJsonObject().entrySet().forEach(e -> value.addProperty(e.getKey(), remapValue(e.getValue().getAsString())));
-					mappingsMapped.add(entry.getKey(), value);
-				});
-				mapped.add("mappings", mappingsMapped);
-
-				JsonObject data = (JsonObject) deepCopy.invoke(object.get("data").getAsJsonObject());
-				String naming = FMLEnvironment.naming;
-				if(!naming.equalsIgnoreCase("srg") && !naming.equalsIgnoreCase("mcp")) throw new RuntimeException("Invalid naming!");
-
-				JsonObject dataMappingMapped = new JsonObject();
-				if(data.has("named:intermediary")) {
-					data.get("named:intermediary").getAsJsonObject().entrySet().forEach(entry -> {
-						String key = entry.getKey();
-						JsonObject value = new JsonObject();
-						entry.getValue().getAsJsonObject().entrySet()
-								.forEach(e -> value.addProperty(e.getKey(), remapValue(e.getValue().getAsString())));
-						dataMappingMapped.add(key, value);
-					});
-					data.add("named:" + naming, dataMappingMapped);
+		/**
+		 * Remaps a Mixin member reference, {@code Lowner;name(desc)}, {@code Lowner;name:desc}, their forms without the owner,
+		 * or a class name.
+		 */
+		public String mapMemberReference(String s) {
+			int semicolon = -1, paren = -1, closeParen = -1, colon = -1;
+			for(int k = 0; k < s.length(); k++) { // single pass over the reference
+				switch(s.charAt(k)) {
+					case ';':
+						if(semicolon < 0) semicolon = k;
+						break;
+					case '(':
+						if(paren < 0) paren = k;
+						break;
+					case ')':
+						if(closeParen < 0) closeParen = k;
+						break;
+					case ':':
+						if(colon < 0) colon = k;
+						break;
 				}
-				mapped.add("data", data);
-				return mapped;
-			} catch (Exception e) {
-				e.printStackTrace();
 			}
-			return object;
-		}
-		private String remapValue(String s) {
-			int i = s.indexOf(';') + 1;
-			boolean hasNoClsDescBeforeFieldName = s.contains(":") && s.indexOf(':') < i;
-			boolean hasNoClsDescBeforeMethodName = s.contains("(") && s.contains(")") && s.indexOf('(') < i;
-			String clsDesc;
-			if(hasNoClsDescBeforeFieldName || hasNoClsDescBeforeMethodName) clsDesc = "";
-			else clsDesc = s.substring(0, i);
-			String sMapped = clsDesc.isEmpty() ? "" : mapDesc(clsDesc);
-			if(s.contains("(") && s.contains(")")) { // method
-				int j = s.indexOf('(');
-				String methodName = hasNoClsDescBeforeMethodName ? s.substring(0, j) : s.substring(i, j);
-				if(methodName.equals("<init>") || methodName.equals("<clinit>")) sMapped += methodName;
-				else sMapped += remapFunc.apply(INameMappingService.Domain.METHOD, methodName);
-				sMapped += mapMethodDesc(s.substring(j));
-			} else if(s.contains(":")) { // field
-				int j = s.indexOf(':');
-				String fieldName = hasNoClsDescBeforeFieldName ? s.substring(0, j) : s.substring(i, j);
-				sMapped += remapFunc.apply(INameMappingService.Domain.FIELD, fieldName);
-				sMapped += ':';
-				sMapped += mapDesc(s.substring(j + 1));
-			} else { // class
-				sMapped = map(s);
+			int i = semicolon + 1;
+			boolean isMethod = paren >= 0 && closeParen >= 0;
+			boolean hasNoClsDescBeforeFieldName = colon >= 0 && colon < i;
+			boolean hasNoClsDescBeforeMethodName = isMethod && paren < i;
+			if(!isMethod && colon < 0) return map(s); // class
+			StringBuilder sMapped = new StringBuilder(s.length() + 16);
+			if(i > 0 && !hasNoClsDescBeforeFieldName && !hasNoClsDescBeforeMethodName) sMapped.append(mapDesc(s.substring(0, i)));
+			if(isMethod) {
+				String methodName = s.substring(hasNoClsDescBeforeMethodName ? 0 : i, paren);
+				if(methodName.equals("<init>") || methodName.equals("<clinit>")) sMapped.append(methodName);
+				else sMapped.append(remapFunc.apply(INameMappingService.Domain.METHOD, methodName));
+				sMapped.append(mapMethodDesc(s.substring(paren)));
+			} else { // field
+				sMapped.append(remapFunc.apply(INameMappingService.Domain.FIELD, s.substring(hasNoClsDescBeforeFieldName ? 0 : i, colon)));
+				sMapped.append(':');
+				sMapped.append(mapDesc(s.substring(colon + 1)));
 			}
-			return sMapped;
+			return sMapped.toString();
 		}
 	}
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import cpw.mods.modlauncher.api.INameMappingService;
 import io.github.fcworkgroupmc.f2c.f2c.transformationservices.NothingModLocator;
 import net.minecraftforge.fml.loading.FMLCommonLaunchHandler;
 import net.minecraftforge.fml.loading.FMLLoader;
+import net.minecraftforge.fml.loading.FMLPaths;
 import net.minecraftforge.fml.loading.moddiscovery.ModFile;
 import net.minecraftforge.forgespi.locating.IModLocator;
 import org.apache.logging.log4j.LogManager;
@@ -34,8 +35,11 @@ import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.function.BiFunction;
 import java.util.function.Supplier;
 
@@ -48,9 +52,61 @@ public class Metadata {
 	/** fabric mod definition(fabric.mod.json) */
 	public static final String FABRIC_MOD_DEF = "fabric.mod.json";
 	public static final String F2C_DIR = ".f2c";
+	public static final String VERSION = String.valueOf(Metadata.class.getPackage().getImplementationVersion());
 
 	public static final IModLocator nothingLocator = new NothingModLocator();
 
+	/** remap class entries of a jar on a fork-join pool, see {@link FabricObfProcessor} */
+	public static final boolean PARALLEL_REMAP = Boolean.parseBoolean(System.getProperty("f2c.parallelRemap", "true"));
+	/** how many class entries may be remapped ahead of the jar writer */
+	public static final int REMAP_WINDOW = Integer.getInteger("f2c.remapWindow", 256);
+	/** how many bytes nested jars may use while they are processed in memory, larger ones go through temporary files */
+	public static final long INNER_JAR_MEMORY = Long.getLong("f2c.innerJarMemory", 256L << 20);
+	/** how many bytes of processed nested jars are kept, so a nested jar bundled by several mods is processed once */
+	public static final long INNER_JAR_CACHE = Long.getLong("f2c.innerJarCache", 128L << 20);
+	/** how many Fabric mod jars are processed at the same time */
+	public static final int PROCESS_THREADS = Math.max(1, Integer.getInteger("f2c.processThreads", Runtime.getRuntime().availableProcessors()));
+	/** the format of processed mods, {@code deflated} or {@code stored} to leave their entries uncompressed */
+	public static final String PROCESSED_FORMAT = System.getProperty("f2c.processedFormat", "deflated").toLowerCase(Locale.ROOT);
+	/** when classes are remapped, {@code ahead} while processing mods or {@code lazy} when they are loaded */
+	public static final String REMAP_MODE = System.getProperty("f2c.remapMode", "ahead").toLowerCase(Locale.ROOT);
+	/** how many bytes of classes remapped when loaded are kept in memory */
+	public static final long LAZY_REMAP_CACHE = Long.getLong("f2c.lazyRemapCache", 64L << 20);
+	/** the engine remapping classes, {@code asm} to rebuild them with ASM or {@code constantpool} to rewrite their constant pool only */
+	public static final String REMAP_ENGINE = System.getProperty("f2c.remapEngine", "asm");
+	/** compare every class remapped by the constant pool engine with the ASM result, and use the ASM result if they differ */
+	public static final boolean VERIFY_REMAP_ENGINE = Boolean.getBoolean("f2c.verifyRemapEngine");
+	/** how many remapped descriptors and signatures of each kind are kept by {@link FabricObfProcessor.FabricModRemapper} */
+	public static final long DESCRIPTOR_CACHE_SIZE = Long.getLong("f2c.descriptorCacheSize", 16384);
+	/** a cache directory for the processed mods and the mappings shared by every instance using it, {@code <game dir>/.f2c} if unset */
+	public static final String CACHE_DIR = System.getProperty("f2c.cacheDir");
+	/** how many days an entry of a shared cache directory is kept after an instance last used it */
+	public static final int SHARED_CACHE_MAX_AGE = Integer.getInteger("f2c.sharedCacheMaxAge", 30);
+	/** the URL of a remote cache of processed mods, see {@link io.github.fcworkgroupmc.f2c.f2c.cache.HttpRemoteCache} */
+	public static final String REMOTE_CACHE = System.getProperty("f2c.remoteCache");
+	/** the Authorization header sent to the remote cache */
+	public static final String REMOTE_CACHE_AUTHORIZATION = System.getProperty("f2c.remoteCacheAuthorization");
+	/** upload the mods processed by this instance to the remote cache */
+	public static final boolean REMOTE_CACHE_PUSH = Boolean.getBoolean("f2c.remoteCachePush");
+	/**
+	 * the sources the mapping files are fetched from, in order: {@code bundled}, {@code local}, {@code mirror}, {@code upstream}
+	 * or the class name of a {@link io.github.fcworkgroupmc.f2c.f2c.namemappingservices.MappingSource}
+	 */
+	public static final String MAPPING_SOURCES = System.getProperty("f2c.mappingSources", "bundled,local,mirror,upstream");
+	/** a directory holding the mapping files, for the {@code local} mapping source */
+	public static final String MAPPINGS_DIR = System.getProperty("f2c.mappingsDir");
+	/** the URL of a mirror of the mapping files, for the {@code mirror} mapping source */
+	public static final String MAPPINGS_MIRROR = System.getProperty("f2c.mappingsMirror");
+	/** how many seconds the HTTP mapping sources wait for a connection or for data */
+	public static final int MAPPINGS_TIMEOUT = Integer.getInteger("f2c.mappingsTimeout", 30);
+	/**
+	 * @return the directory holding the processed mods and the mappings
+	 */
+	public static Path getCacheDir(IEnvironment environment) {
+		if(CACHE_DIR != null) return Paths.get(CACHE_DIR).toAbsolutePath();
+		return environment.getProperty(IEnvironment.Keys.GAMEDIR.get()).orElse(FMLPaths.GAMEDIR.get()).resolve(F2C_DIR);
+	}
+
 	public static final boolean DEV = true;
 	public static boolean isDevelopment() {
 		return location == null || !location.getPath().endsWith(".jar");
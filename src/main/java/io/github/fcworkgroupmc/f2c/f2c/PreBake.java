@@ -0,0 +1,139 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c;
+
+import cpw.mods.modlauncher.api.INameMappingService;
+import io.github.fcworkgroupmc.f2c.f2c.cache.ProcessedJarCache;
+import io.github.fcworkgroupmc.f2c.f2c.cache.RemoteCache;
+import io.github.fcworkgroupmc.f2c.f2c.namemappingservices.IntermediaryToMcpNameMappingService;
+import io.github.fcworkgroupmc.f2c.f2c.namemappingservices.IntermediaryToSrgNameMappingService;
+import io.github.fcworkgroupmc.f2c.f2c.transformationservices.FabricModTransformationService;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader;
+import net.fabricmc.api.EnvType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Processes a mods directory outside the game, so that the game starts without remapping mods or downloading mappings.
+ * <p>
+ * The output is a cache directory to use as {@link Metadata#CACHE_DIR f2c.cacheDir} or as the {@code .f2c} directory of the game.
+ * The mappings are read from local files, copied to it and compiled, and the {@code f2c.*} properties changing how mods are processed
+ * must be the same as the game's. The F2C jar and the libraries of Forge must be on the class path.
+ */
+public class PreBake {
+	private static final String USAGE = "Usage: PreBake --mods <mods dir> --output <cache dir> --version <minecraft version>"
+			+ " --srg <joined.tsrg> --intermediary <intermediary tiny> [--env server|client]"
+			+ " [--naming srg|mcp] [--mcpFields <fields.csv> --mcpMethods <methods.csv>]";
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options;
+		try {
+			options = parseOptions(args);
+			for(String required : new String[] {"mods", "output", "version", "srg", "intermediary"}) require(options, required);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+			return;
+		}
+		Path modsDir = Paths.get(options.get("mods"));
+		Path output = Paths.get(options.get("output"));
+		String version = options.get("version");
+		Path srgFile = Paths.get(options.get("srg"));
+		Path intermediaryFile = Paths.get(options.get("intermediary"));
+		EnvType envType = EnvType.valueOf(options.getOrDefault("env", "server").toUpperCase(Locale.ROOT));
+		String naming = options.getOrDefault("naming", "srg").toLowerCase(Locale.ROOT);
+		long start = System.nanoTime();
+
+		Path mappingsDir = output.resolve("mappings");
+		Files.createDirectories(mappingsDir);
+		copyMappings(srgFile, mappingsDir.resolve(version + "-joined.tsrg"));
+		copyMappings(intermediaryFile, mappingsDir.resolve(version + ".tiny"));
+		RemoteCache remote = Metadata.REMOTE_CACHE_PUSH ? RemoteCache.fromUrl(Metadata.REMOTE_CACHE, Metadata.REMOTE_CACHE_AUTHORIZATION) : null;
+		IntermediaryToSrgNameMappingService.load(version, srgFile, intermediaryFile, mappingsDir.resolve(version + ".f2cmap"), remote).get();
+		INameMappingService mappingService = new IntermediaryToSrgNameMappingService();
+		if(naming.equals("mcp")) {
+			IntermediaryToMcpNameMappingService.load(Files.readAllBytes(Paths.get(require(options, "mcpFields"))),
+					Files.readAllBytes(Paths.get(require(options, "mcpMethods"))), mappingsDir.resolve("mcp.f2cmap"));
+			mappingService = new IntermediaryToMcpNameMappingService();
+		} else if(!naming.equals("srg")) throw new IllegalArgumentException("Unknown naming " + naming);
+		Metadata.remapFunc = mappingService.namingFunction(); // before FabricObfProcessor is initialized
+		Metadata.funcReady = true;
+		FabricObfProcessor.configure(naming, envType.toString(), output);
+
+		ProcessedJarCache cache = new ProcessedJarCache(output.resolve("processed"), IntermediaryToSrgNameMappingService.getMappingsHash(),
+				naming, envType.toString(), remote);
+		List<Path> mods;
+		try(Stream<Path> files = Files.list(modsDir)) {
+			mods = files.filter(path -> {
+				String name = path.getFileName().toString();
+				return (name.endsWith(Metadata.JAR_SUFFIX) || name.endsWith(Metadata.FABRIC_MOD_SUFFIX)) && !name.contains("f2c-");
+			}).sorted().collect(Collectors.toList());
+		}
+		int processed = 0;
+		for(Path mod : mods) {
+			try(ZipReader reader = ZipReader.open(mod)) {
+				ZipReader.Entry modDef = reader.getEntry(Metadata.FABRIC_MOD_DEF);
+				if(modDef == null) continue;
+				try(InputStream in = reader.getInputStream(modDef)) {
+					if(!FabricModTransformationService.loadsInEnvironment(in, envType, mod)) {
+						System.out.println("Skipping " + mod.getFileName() + ", it does not load in environment type " + envType);
+						continue;
+					}
+				}
+			}
+			System.out.println("Processing " + mod.getFileName());
+			// the name the game gives the mod file, see FabricModTransformationService#initialize
+			cache.process(mod, mod.getFileName().toString().replace(Metadata.JAR_SUFFIX, Metadata.FABRIC_MOD_SUFFIX));
+			processed++;
+		}
+		cache.prune();
+		System.out.println("Processed " + processed + " Fabric mod(s) into " + output + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	private static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for(int i = 0; i < args.length; i++) {
+			if(!args[i].startsWith("--") || i + 1 >= args.length) throw new IllegalArgumentException("Expected --<option> <value>, got " + args[i]);
+			options.put(args[i].substring(2), args[++i]);
+		}
+		return options;
+	}
+	private static String require(Map<String, String> options, String name) {
+		String value = options.get(name);
+		if(value == null) throw new IllegalArgumentException("Missing --" + name);
+		return value;
+	}
+	/** copies a mapping file where the game looks for it, marked as completely downloaded */
+	private static void copyMappings(Path source, Path target) throws IOException {
+		Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		Path completed = target.resolveSibling(target.getFileName() + ".complete");
+		if(Files.notExists(completed)) Files.createFile(completed);
+	}
+}
\ No newline at end of file
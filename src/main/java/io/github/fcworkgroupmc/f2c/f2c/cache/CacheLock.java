@@ -0,0 +1,94 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.cache;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on a lock file, held against the other threads of this JVM and against the other processes sharing the file.
+ * <p>
+ * File locks are held by the whole JVM, so the threads of this JVM are serialized by an in-memory lock first.
+ * The lock file is left in place, deleting it would let another process lock a different file of the same name.
+ * Only a process moving the whole directory of a lock file away while holding the lock removes it,
+ * and a process which was waiting for it then locks a new lock file at the same path.
+ */
+public class CacheLock implements Closeable {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final ConcurrentHashMap<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+	private final ReentrantLock localLock;
+	private final FileChannel channel;
+	private final FileLock fileLock;
+	private CacheLock(ReentrantLock localLock, FileChannel channel, FileLock fileLock) {
+		this.localLock = localLock;
+		this.channel = channel;
+		this.fileLock = fileLock;
+	}
+
+	/**
+	 * Waits until the lock file is free and locks it.
+	 * @param description what the lock protects, logged when another process holds it
+	 */
+	public static CacheLock lock(Path lockFile, String description) throws IOException {
+		Path path = lockFile.toAbsolutePath().normalize();
+		ReentrantLock localLock = LOCAL_LOCKS.computeIfAbsent(path, p -> new ReentrantLock());
+		localLock.lock();
+		FileChannel channel = null;
+		try {
+			while(true) {
+				Files.createDirectories(path.getParent());
+				channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileLock fileLock = channel.tryLock();
+				if(fileLock == null) {
+					LOGGER.info("Waiting for another process to finish {}", description);
+					fileLock = channel.lock();
+				}
+				if(Files.exists(path)) return new CacheLock(localLock, channel, fileLock);
+				// moved away while waiting by the process pruning its directory, lock the file created again instead
+				fileLock.release();
+				channel.close();
+				channel = null;
+			}
+		} catch (IOException | RuntimeException e) {
+			if(channel != null) channel.close();
+			localLock.unlock();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			fileLock.release();
+			channel.close();
+		} finally {
+			localLock.unlock();
+		}
+	}
+}
\ No newline at end of file
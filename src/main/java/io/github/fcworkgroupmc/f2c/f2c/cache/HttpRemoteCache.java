@@ -0,0 +1,111 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.cache;
+
+import io.github.fcworkgroupmc.f2c.f2c.util.HashUtil;
+import io.github.fcworkgroupmc.f2c.f2c.util.NetworkUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remote cache over plain HTTP, in the manner of the Gradle build cache.
+ * <p>
+ * An artifact is read with {@code GET <url>/<key>} and written with {@code PUT <url>/<key>}, next to its SHA-256 at
+ * {@code <url>/<key>.sha256}. A missing artifact is answered with 404. The checksum is uploaded last and read first,
+ * so a partly uploaded artifact is never used, and an artifact not matching its checksum is ignored.
+ * <p>
+ * Once a remote cache cannot be connected to, it is not used for the rest of the run, so an unreachable cache delays startup once.
+ */
+public class HttpRemoteCache implements RemoteCache {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final String CHECKSUM_SUFFIX = ".sha256";
+	private static final Duration TIMEOUT = Duration.ofSeconds(10L);
+	/** the URLs of the remote caches which could not be connected to */
+	private static final Set<String> unreachable = ConcurrentHashMap.newKeySet();
+
+	private final String url;
+	private final String authorization;
+	public HttpRemoteCache(String url, String authorization) {
+		this.url = url.endsWith("/") ? url : url + "/";
+		this.authorization = authorization;
+	}
+
+	@Override
+	public boolean fetch(String key, Path target) throws IOException {
+		if(unreachable.contains(url)) return false;
+		byte[] checksum = get(key + CHECKSUM_SUFFIX);
+		if(checksum == null) return false;
+		byte[] data = get(key);
+		if(data == null) return false;
+		if(!HashUtil.sha256(data).equalsIgnoreCase(new String(checksum, StandardCharsets.UTF_8).trim())) {
+			LOGGER.warn("Remote cache entry {} does not match its checksum, ignoring it", key);
+			return false;
+		}
+		Files.write(target, data);
+		return true;
+	}
+	@Override
+	public void store(String key, Path artifact) throws IOException {
+		if(unreachable.contains(url)) return;
+		byte[] data = Files.readAllBytes(artifact);
+		put(key, data);
+		if(unreachable.contains(url)) return; // the checksum would make a missing artifact look complete
+		put(key + CHECKSUM_SUFFIX, HashUtil.sha256(data).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private NetworkUtil.Net.NetBuilder request(String name) {
+		NetworkUtil.Net.NetBuilder builder = NetworkUtil.newBuilder(url + name).timeout(TIMEOUT);
+		if(authorization != null) builder.setHeader("Authorization", authorization);
+		return builder;
+	}
+	/**
+	 * @return the content of the entry, or {@code null} if it does not exist or the remote cache is unreachable
+	 */
+	private byte[] get(String name) throws IOException {
+		try(NetworkUtil.Net.Connection connection = request(name).connect()) {
+			int code = connection.getResponseCode();
+			if(code == -1) {
+				setUnreachable(connection.getFailure());
+				return null;
+			}
+			if(code == 404) return null;
+			if(code != 200) throw new IOException("GET " + name + " returned " + code);
+			byte[] data = connection.asByteArray();
+			if(data == null) throw new IOException("Error reading " + name);
+			return data;
+		}
+	}
+	private void put(String name, byte[] data) throws IOException {
+		try(NetworkUtil.Net.Connection connection = request(name).requestMethod(NetworkUtil.Net.Method.PUT).dataSend(data).connect()) {
+			int code = connection.getResponseCode();
+			if(code == -1) setUnreachable(connection.getFailure());
+			else if(code < 200 || code >= 300) throw new IOException("PUT " + name + " returned " + code);
+		}
+	}
+	private void setUnreachable(IOException failure) {
+		if(unreachable.add(url)) LOGGER.warn("Cannot connect to the remote cache {}, not using it for the rest of the run: {}", url, failure == null ? "no response" : failure.toString());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,246 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.cache;
+
+import io.github.fcworkgroupmc.f2c.f2c.FabricObfProcessor;
+import io.github.fcworkgroupmc.f2c.f2c.Metadata;
+import io.github.fcworkgroupmc.f2c.f2c.util.HashUtil;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ClassIndex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of processed Fabric mod jars.
+ * <p>
+ * Every processed jar lives at {@code <root>/<key>/<mod file name>}, the key being derived from the hash of the input jar,
+ * the hash of the mapping set, the naming, the environment type, the remapping mode and engine, the output format,
+ * the {@link FabricObfProcessor#OUTPUT_VERSION version of the processed jars} and the F2C version.
+ * A jar is only processed again when its key changes.
+ * <p>
+ * The cache directory may be shared by several instances, see {@link Metadata#CACHE_DIR}. An entry is then processed
+ * by a single process holding its lock, while the others wait for it and reuse the result, and entries are only pruned
+ * once no instance used them for {@link Metadata#SHARED_CACHE_MAX_AGE} days.
+ * <p>
+ * A missing entry is fetched from the {@link RemoteCache} if there is one, before processing the jar.
+ * Failing to reach the remote cache is not an error, the jar is processed locally instead.
+ * The jars processed locally are uploaded once their lock is released, so the other instances do not wait for the upload.
+ * <p>
+ * Every processed jar has its {@link ClassIndex} next to it.
+ */
+public class ProcessedJarCache {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String LOCK_FILE = ".lock";
+	private static final String TOMBSTONE_SUFFIX = ".pruned";
+
+	private final Path root;
+	private final String mappingsHash;
+	private final String naming;
+	private final String envType;
+	private final RemoteCache remote;
+	private final boolean shared = Metadata.CACHE_DIR != null;
+	private final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
+	public ProcessedJarCache(Path root, String mappingsHash, String naming, String envType) {
+		this(root, mappingsHash, naming, envType, null);
+	}
+	public ProcessedJarCache(Path root, String mappingsHash, String naming, String envType, RemoteCache remote) {
+		this.root = root;
+		this.mappingsHash = mappingsHash;
+		this.naming = naming;
+		this.envType = envType;
+		this.remote = remote;
+	}
+
+	public String key(Path input) throws IOException {
+		return HashUtil.sha256(HashUtil.sha256(input), mappingsHash, naming, envType, Metadata.REMAP_MODE, Metadata.REMAP_ENGINE, Metadata.PROCESSED_FORMAT,
+				String.valueOf(FabricObfProcessor.OUTPUT_VERSION), Metadata.VERSION);
+	}
+
+	/**
+	 * Returns the processed version of the given mod jar, processing it only if no valid cache entry exists.
+	 */
+	public Path process(Path input) {
+		return process(input, input.getFileName().toString());
+	}
+	/**
+	 * Returns the processed version of the given mod jar under the given file name.
+	 */
+	public Path process(Path input, String fileName) {
+		try {
+			String key = key(input);
+			usedKeys.add(key);
+			Path entryDir = root.resolve(key);
+			Path target = entryDir.resolve(fileName);
+			if(!shared && Files.isRegularFile(target)) {
+				LOGGER.debug("Reusing processed {} ({})", input.getFileName(), key);
+				markUsed(entryDir);
+				if(Files.notExists(ClassIndex.pathOf(target))) writeIndex(target); // processed before indexes were written
+				return target;
+			}
+			// in a shared directory, an entry is only reused under its lock so another instance cannot prune it meanwhile
+			try(CacheLock lock = CacheLock.lock(entryDir.resolve(LOCK_FILE), "processing " + input.getFileName())) {
+				if(Files.isRegularFile(target)) { // processed by another process, possibly while waiting for the lock
+					LOGGER.debug("Reusing processed {} ({})", input.getFileName(), key);
+					markUsed(entryDir);
+					if(Files.notExists(ClassIndex.pathOf(target))) writeIndex(target);
+					return target;
+				}
+				Path temp = entryDir.resolve(UUID.randomUUID().toString().replace("-", "") + TEMP_SUFFIX);
+				try {
+					if(fetch(key, temp)) {
+						LOGGER.debug("Fetched processed {} from the remote cache ({})", input.getFileName(), key);
+						moveAtomically(temp, target);
+						writeIndex(target);
+						return target;
+					}
+					FabricObfProcessor.processJar(input, temp);
+					moveAtomically(temp, target);
+				} finally {
+					Files.deleteIfExists(temp);
+				}
+				writeIndex(target);
+			}
+			if(remote != null && Metadata.REMOTE_CACHE_PUSH) store(key, target); // without holding the lock, the processed jar is complete
+			return target;
+		} catch (IOException e) {
+			throw new RuntimeException("Error caching the processed Fabric mod file " + input.getFileName(), e);
+		}
+	}
+
+	private static void writeIndex(Path jar) {
+		try {
+			ClassIndex.write(jar);
+		} catch (IOException e) {
+			LOGGER.warn("Error writing the class index of {}", jar.getFileName(), e);
+		}
+	}
+	private boolean fetch(String key, Path target) {
+		if(remote == null) return false;
+		try {
+			return remote.fetch(key, target);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Error fetching {} from the remote cache, processing it locally", key, e);
+			return false;
+		}
+	}
+	private void store(String key, Path artifact) {
+		try {
+			remote.store(key, artifact);
+			LOGGER.debug("Uploaded {} to the remote cache", key);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Error uploading {} to the remote cache", key, e);
+		}
+	}
+
+	/**
+	 * Deletes every cache entry that was not used since this cache was created,
+	 * and in a shared cache directory was not used by any instance for {@link Metadata#SHARED_CACHE_MAX_AGE} days either.
+	 */
+	public void prune() {
+		if(Files.notExists(root)) return;
+		long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(Metadata.SHARED_CACHE_MAX_AGE);
+		try(Stream<Path> entries = Files.list(root)) {
+			for(Path entry : entries.filter(p -> !usedKeys.contains(p.getFileName().toString()))
+					.filter(p -> !shared || isTombstone(p) || lastUsed(p) < cutoff).collect(Collectors.toList())) {
+				if(shared && Files.isDirectory(entry) && !isTombstone(entry)) pruneShared(entry, cutoff);
+				else {
+					LOGGER.debug("Removing stale processed entry {}", entry.getFileName());
+					deleteRecursively(entry);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Error pruning processed jar cache", e);
+		}
+	}
+
+	/**
+	 * Deletes an entry of a shared cache directory, unless another instance used it since it was listed.
+	 * The entry is moved away under its lock, so an instance waiting for the lock sees its lock file gone and locks
+	 * a new one in a new entry directory, and the moved entry is deleted once the lock is released.
+	 * When the entry cannot be moved, as with an open lock file on Windows, its content is deleted under the lock instead
+	 * and the empty directory and its lock file are left in place.
+	 */
+	private static void pruneShared(Path entry, long cutoff) throws IOException {
+		Path tombstone = entry.resolveSibling(entry.getFileName() + "." + UUID.randomUUID().toString().replace("-", "") + TOMBSTONE_SUFFIX);
+		try(CacheLock lock = CacheLock.lock(entry.resolve(LOCK_FILE), "pruning " + entry.getFileName())) {
+			if(lastUsed(entry) >= cutoff) return;
+			LOGGER.debug("Removing stale processed entry {}", entry.getFileName());
+			try {
+				Files.move(entry, tombstone, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				LOGGER.debug("Cannot move {} away, emptying it instead", entry.getFileName(), e);
+				try(Stream<Path> files = Files.list(entry)) {
+					for(Path file : files.filter(p -> !p.getFileName().toString().equals(LOCK_FILE)).collect(Collectors.toList()))
+						deleteRecursively(file);
+				}
+				return;
+			}
+		}
+		deleteRecursively(tombstone);
+	}
+	/** an entry moved away by {@link #pruneShared}, left behind when its instance stopped before deleting it */
+	private static boolean isTombstone(Path entry) {
+		return entry.getFileName().toString().endsWith(TOMBSTONE_SUFFIX);
+	}
+
+	/** the modification time of an entry directory is the last time an instance used it */
+	private static void markUsed(Path entryDir) {
+		try {
+			Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			LOGGER.debug("Cannot mark {} as used", entryDir.getFileName(), e);
+		}
+	}
+	private static long lastUsed(Path entry) {
+		try {
+			return Files.getLastModifiedTime(entry).toMillis();
+		} catch (IOException e) {
+			return Long.MAX_VALUE; // being deleted by another instance
+		}
+	}
+
+	static void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	static void deleteRecursively(Path path) throws IOException {
+		if(Files.isDirectory(path)) {
+			try(Stream<Path> walk = Files.walk(path)) {
+				for(Path p : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+					Files.deleteIfExists(p);
+			}
+		} else Files.deleteIfExists(path);
+	}
+}
\ No newline at end of file
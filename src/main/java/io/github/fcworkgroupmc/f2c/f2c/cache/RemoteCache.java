@@ -0,0 +1,48 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.cache;
+
+import org.apache.logging.log4j.LogManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A cache of artifacts, such as processed mod jars, shared by several hosts and addressed by the keys of the local caches.
+ */
+public interface RemoteCache {
+	/**
+	 * Downloads and verifies an artifact.
+	 * @return whether the artifact exists and was written to the target
+	 */
+	boolean fetch(String key, Path target) throws IOException;
+	/**
+	 * Uploads an artifact.
+	 */
+	void store(String key, Path artifact) throws IOException;
+
+	/**
+	 * @return the remote cache at the given URL, {@code null} if no URL is given or it is not supported
+	 */
+	static RemoteCache fromUrl(String url, String authorization) {
+		if(url == null || url.isEmpty()) return null;
+		if(url.startsWith("http://") || url.startsWith("https://")) return new HttpRemoteCache(url, authorization);
+		LogManager.getLogger().warn("Unsupported remote cache {}, only HTTP is supported", url);
+		return null;
+	}
+}
\ No newline at end of file
@@ -18,19 +18,31 @@
 package io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric;
 
 import cpw.mods.modlauncher.serviceapi.ILaunchPluginService;
+import io.github.fcworkgroupmc.f2c.f2c.FabricObfProcessor;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader;
 import net.fabricmc.loader.launch.common.FabricLauncherBase;
 import net.fabricmc.loader.transformer.ClassStripper;
 import net.fabricmc.loader.transformer.EnvironmentStrippingData;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.AccessWidenerLaunchPlugin.N;
 import static io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.AccessWidenerLaunchPlugin.Y;
 
 public class F2CLaunchPlugin implements ILaunchPluginService {
+	private static final Logger LOGGER = LogManager.getLogger();
+	/** classes whose {@code @Environment} members were stripped ahead of time */
+	private static final Set<String> strippedClasses = ConcurrentHashMap.newKeySet();
 	@Override
 	public String name() {
 		return "f2c";
@@ -39,7 +51,7 @@ public class F2CLaunchPlugin implements ILaunchPluginService {
 	@Override
 	public EnumSet<Phase> handlesClass(Type classType, boolean isEmpty) {
 		boolean isMinecraftClass = classType.getClassName().startsWith("net.minecraft.") || classType.getClassName().indexOf('.') < 0;
-		return isMinecraftClass ? N : Y;
+		return isMinecraftClass || strippedClasses.contains(classType.getInternalName()) ? N : Y;
 	}
 	@Override
 	public boolean processClass(Phase phase, ClassNode classNode, Type classType) {
@@ -54,4 +66,20 @@ public class F2CLaunchPlugin implements ILaunchPluginService {
 		}
 		return false;
 	}
+
+	/**
+	 * Registers the classes of a processed mod, and of the jars nested in it, that do not need stripping when they are loaded.
+	 */
+	public static void addStrippedClasses(Path jar) {
+		Set<String> classes = new HashSet<>();
+		Set<String> runtimeClasses = new HashSet<>();
+		try(ZipReader reader = ZipReader.open(jar)) {
+			FabricObfProcessor.readClasses(reader, classes::add, runtimeClasses::add);
+		} catch (IOException e) {
+			LOGGER.error("Error reading the classes of {}", jar.getFileName(), e);
+			return;
+		}
+		classes.removeAll(runtimeClasses);
+		strippedClasses.addAll(classes);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import cpw.mods.modlauncher.serviceapi.ILaunchPluginService;
+import io.github.fcworkgroupmc.f2c.f2c.FabricObfProcessor;
+import io.github.fcworkgroupmc.f2c.f2c.Metadata;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.AccessWidenerLaunchPlugin.N;
+import static io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.AccessWidenerLaunchPlugin.Y;
+
+/**
+ * Remaps the classes of Fabric mods when they are loaded, for the lazy remap mode in which {@link FabricObfProcessor}
+ * leaves them as they are.
+ * <p>
+ * The classes loaded are remapped from the nodes transformed by the plugins before this one, so they are never cached.
+ * The classes read from the jars, as by {@code FabricLauncher.getClassByteArray}, are kept remapped in a cache
+ * bounded by {@link Metadata#LAZY_REMAP_CACHE} bytes.
+ */
+public class LazyRemapLaunchPlugin implements ILaunchPluginService {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final byte[] UNCHANGED = new byte[0];
+	private static final Set<String> classes = ConcurrentHashMap.newKeySet();
+	private static final Cache<String, byte[]> cache = CacheBuilder.newBuilder()
+			.maximumWeight(Metadata.LAZY_REMAP_CACHE).weigher((String name, byte[] bytes) -> name.length() + bytes.length).build();
+	private static final Field[] CLASS_NODE_FIELDS = Arrays.stream(ClassNode.class.getFields())
+			.filter(field -> !Modifier.isStatic(field.getModifiers())).toArray(Field[]::new);
+
+	@Override
+	public String name() {
+		return "f2c_remap";
+	}
+
+	@Override
+	public EnumSet<Phase> handlesClass(Type classType, boolean isEmpty) {
+		return !isEmpty && classes.contains(classType.getInternalName()) ? Y : N;
+	}
+	@Override
+	public boolean processClass(Phase phase, ClassNode classNode, Type classType) {
+		ClassWriter writer = new ClassWriter(0);
+		classNode.accept(writer);
+		byte[] remapped = FabricObfProcessor.remapClass(writer.toByteArray());
+		if(remapped == null) return false;
+		ClassNode node = new ClassNode();
+		new ClassReader(remapped).accept(node, ClassReader.EXPAND_FRAMES);
+		try {
+			for(Field field : CLASS_NODE_FIELDS) field.set(classNode, field.get(node));
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Cannot replace class " + classType.getClassName(), e);
+		}
+		return true;
+	}
+
+	/**
+	 * Remaps a class as read from its jar, before any transformation.
+	 * @return the remapped class, or the given bytes if the class does not need remapping
+	 */
+	public static byte[] remap(String className, byte[] bytes) {
+		String internalName = className.replace('.', '/');
+		if(!classes.contains(internalName)) return bytes;
+		byte[] remapped = cache.getIfPresent(internalName);
+		if(remapped == null) {
+			remapped = FabricObfProcessor.remapClass(bytes);
+			if(remapped == null) remapped = UNCHANGED;
+			cache.put(internalName, remapped);
+		}
+		return remapped == UNCHANGED ? bytes : remapped;
+	}
+
+	/**
+	 * Registers the classes of a processed mod, and of the jars nested in it, to be remapped when they are loaded.
+	 */
+	public static void addClasses(Path jar) {
+		try(ZipReader reader = ZipReader.open(jar)) {
+			FabricObfProcessor.readClasses(reader, classes::add, name -> {});
+		} catch (IOException e) {
+			LOGGER.error("Error reading the classes of {}", jar.getFileName(), e);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.namemappingservices;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Mapping files bundled in the F2C jar under {@code /f2c-mappings/}, for builds made to start without any network access.
+ */
+public class BundledMappingSource implements MappingSource {
+	private static final String ROOT = "/f2c-mappings/";
+
+	@Override
+	public boolean fetch(String name, Path target) throws IOException {
+		try(InputStream in = BundledMappingSource.class.getResourceAsStream(ROOT + name)) {
+			if(in == null) return false;
+			MappingSource.copy(in, target);
+			return true;
+		}
+	}
+	@Override
+	public String toString() {
+		return "bundled";
+	}
+}
\ No newline at end of file
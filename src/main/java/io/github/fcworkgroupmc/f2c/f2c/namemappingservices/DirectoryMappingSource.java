@@ -0,0 +1,47 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.namemappingservices;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Mapping files in a local directory, such as one provisioned with the instances of a server host.
+ */
+public class DirectoryMappingSource implements MappingSource {
+	private final Path dir;
+	public DirectoryMappingSource(Path dir) {
+		this.dir = dir;
+	}
+
+	@Override
+	public boolean fetch(String name, Path target) throws IOException {
+		Path file = dir.resolve(name);
+		if(!Files.isRegularFile(file)) return false;
+		try(InputStream in = Files.newInputStream(file)) {
+			MappingSource.copy(in, target);
+		}
+		return true;
+	}
+	@Override
+	public String toString() {
+		return "local " + dir;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.namemappingservices;
+
+import io.github.fcworkgroupmc.f2c.f2c.Metadata;
+import io.github.fcworkgroupmc.f2c.f2c.util.NetworkUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Mapping files over HTTP, either from the upstream repositories or from a mirror serving them at {@code <url>/<name>}.
+ * The files are downloaded with {@link NetworkUtil.Download}, so a file fetched before is revalidated instead of downloaded again,
+ * and a mirror may publish the SHA-256 of a file at {@code <url>/<name>.sha256} to have it verified.
+ * <p>
+ * {@link Metadata#MAPPINGS_TIMEOUT} bounds the wait for the connection and for each read, not the whole download,
+ * so a slow link does not fail a download which is making progress.
+ */
+public class HttpMappingSource implements MappingSource {
+	private static final Duration TIMEOUT = Duration.ofSeconds(Metadata.MAPPINGS_TIMEOUT);
+	private static final String MCPCONFIG = "https://raw.githubusercontent.com/MinecraftForge/MCPConfig/master/versions/release/";
+	private static final String INTERMEDIARY = "https://raw.githubusercontent.com/FabricMC/intermediary/master/mappings/";
+	private static final String MCPBOT = "http://export.mcpbot.bspk.rs/";
+	private static final String CHECKSUM_SUFFIX = ".sha256";
+
+	private final String description;
+	private final Function<String, String> urls;
+	private final boolean checksums;
+	/**
+	 * @param urls gives the URL of a mapping file, or {@code null} if this source does not have it
+	 * @param checksums whether the files may have their SHA-256 next to them, at {@code <url>.sha256}
+	 */
+	public HttpMappingSource(String description, Function<String, String> urls, boolean checksums) {
+		this.description = description;
+		this.urls = urls;
+		this.checksums = checksums;
+	}
+
+	public static HttpMappingSource mirror(String url) {
+		String base = url.endsWith("/") ? url : url + "/";
+		return new HttpMappingSource("mirror " + base, name -> base + name, true);
+	}
+	public static HttpMappingSource upstream() {
+		return new HttpMappingSource("upstream", name -> {
+			if(name.endsWith(SRG_SUFFIX)) return MCPCONFIG + name.substring(0, name.length() - SRG_SUFFIX.length()) + "/joined.tsrg";
+			if(name.endsWith(INTERMEDIARY_SUFFIX)) return INTERMEDIARY + name;
+			if(name.equals(MCP_FIELDS) || name.equals(MCP_METHODS)) return MCPBOT + name;
+			return null;
+		}, false);
+	}
+
+	@Override
+	public boolean fetch(String name, Path target) throws IOException {
+		String url = urls.apply(name);
+		if(url == null) return false;
+		NetworkUtil.Download download = NetworkUtil.download(url, target).timeout(TIMEOUT);
+		if(checksums) download.sha256(getChecksum(url));
+		return download.run() != NetworkUtil.Download.Result.NOT_FOUND;
+	}
+	/**
+	 * @return the SHA-256 published next to a file, or {@code null} if there is none
+	 */
+	private static String getChecksum(String url) throws IOException {
+		try(NetworkUtil.Net.Connection connection = NetworkUtil.newBuilder(url + CHECKSUM_SUFFIX).timeout(TIMEOUT).connect()) {
+			int code = connection.getResponseCode();
+			if(code == 404) return null;
+			byte[] data = code == 200 ? connection.asByteArray() : null;
+			if(data == null) throw new IOException("GET " + url + CHECKSUM_SUFFIX + " returned " + code, connection.getFailure());
+			String checksum = new String(data, StandardCharsets.UTF_8).trim();
+			int end = checksum.indexOf(' '); // sha256sum output
+			return end < 0 ? checksum : checksum.substring(0, end);
+		}
+	}
+	@Override
+	public String toString() {
+		return description;
+	}
+}
\ No newline at end of file
@@ -18,20 +18,32 @@
 package io.github.fcworkgroupmc.f2c.f2c.namemappingservices;
 
 import cpw.mods.modlauncher.api.INameMappingService;
+import io.github.fcworkgroupmc.f2c.f2c.cache.CacheLock;
+import io.github.fcworkgroupmc.f2c.f2c.util.HashUtil;
 import io.github.fcworkgroupmc.f2c.f2c.util.NetworkUtil;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.BiFunction;
 
 public class IntermediaryToMcpNameMappingService implements INameMappingService {
 	private static final Logger LOGGER = LogManager.getLogger();
-	private static final Object2ObjectOpenHashMap<String, String> fields = new Object2ObjectOpenHashMap<>();
-	private static final Object2ObjectOpenHashMap<String, String> methods = new Object2ObjectOpenHashMap<>();
+	private static final NameTable fields = new NameTable("field_");
+	private static final NameTable methods = new NameTable("func_");
+	static String mappingsHash;
 	@Override
 	public String mappingName() {
 		return "intermediarytomcp";
@@ -64,21 +76,67 @@ public class IntermediaryToMcpNameMappingService implements INameMappingService
 		};
 	}
 
-	static void init() {
+	static void init(Path mappingsDir, List<MappingSource> sources) {
 		if(IntermediaryToSrgNameMappingService.classes.isEmpty() || IntermediaryToSrgNameMappingService.fields.isEmpty()
 				|| IntermediaryToSrgNameMappingService.methods.isEmpty())
 			throw new RuntimeException("Mappings are empty, please check your Internet connection");
-		try {
-			NetworkUtil.newBuilder("http://export.mcpbot.bspk.rs/fields.csv")
-					.connectAsync().thenApply(NetworkUtil.Net.Connection::asReaderBuffered)
-					.thenAccept(reader -> reader.lines().skip(1L).map(s -> s.split(","))
-					.forEach(names -> fields.put(names[0], names[1]))).get(); // [0] is srg name, [1] is mcp name
-			NetworkUtil.newBuilder("http://export.mcpbot.bspk.rs/methods.csv")
-					.connectAsync().thenApply(NetworkUtil.Net.Connection::asReaderBuffered)
-					.thenAccept(reader -> reader.lines().skip(1L).map(s -> s.split(","))
-					.forEach(names -> methods.put(names[0], names[1]))).get(); // [0] is srg name, [1] is mcp name
-		} catch (InterruptedException | ExecutionException e) {
-			LOGGER.fatal("Error when executing task", e);
+		try(CacheLock lock = CacheLock.lock(mappingsDir.resolve("mcp.lock"), "downloading the mcp mappings")) { // the directory may be shared
+			CompletableFuture<byte[]> fieldsCsv = fetchAsync(mappingsDir, sources, MappingSource.MCP_FIELDS);
+			CompletableFuture<byte[]> methodsCsv = fetchAsync(mappingsDir, sources, MappingSource.MCP_METHODS);
+			load(fieldsCsv.join(), methodsCsv.join(), mappingsDir.resolve("mcp.f2cmap"));
+		} catch (IOException | CompletionException e) {
+			LOGGER.fatal("Error fetching mcp mappings", e);
 		}
 	}
+	/**
+	 * @return the fetched file, or the one fetched by a previous launch if no source has it
+	 */
+	private static CompletableFuture<byte[]> fetchAsync(Path mappingsDir, List<MappingSource> sources, String name) {
+		return CompletableFuture.supplyAsync(() -> {
+			Path file = mappingsDir.resolve(name);
+			try {
+				try {
+					MappingSource.fetch(sources, name, file);
+				} catch (IOException e) {
+					if(Files.notExists(file)) throw e;
+					LOGGER.warn("Error fetching {}, using the one fetched by a previous launch", name, e);
+				}
+				return Files.readAllBytes(file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, NetworkUtil.downloadExecutor());
+	}
+	/**
+	 * Loads the srg to mcp names from the MCP {@code fields.csv} and {@code methods.csv}.
+	 */
+	public static void load(byte[] fieldsCsv, byte[] methodsCsv) {
+		load(fieldsCsv, methodsCsv, null);
+	}
+	/**
+	 * Loads the srg to mcp names from the MCP {@code fields.csv} and {@code methods.csv}.
+	 * The names are read from the compiled mapping file if it was compiled from the same CSVs, and it is compiled again otherwise.
+	 * @param compiledFile the compiled mapping file, or {@code null} to only parse the CSVs
+	 */
+	public static void load(byte[] fieldsCsv, byte[] methodsCsv, Path compiledFile) {
+		mappingsHash = HashUtil.sha256(HashUtil.sha256(fieldsCsv), HashUtil.sha256(methodsCsv));
+		String key = "mcp/" + mappingsHash;
+		if(compiledFile != null && MappingTable.read(compiledFile, key, fields, methods)) {
+			LOGGER.debug("Loaded compiled mappings {}", compiledFile.getFileName());
+			return;
+		}
+		readCsv(fieldsCsv, fields);
+		readCsv(methodsCsv, methods);
+		if(compiledFile != null) {
+			try {
+				MappingTable.write(compiledFile, key, fields, methods);
+			} catch (IOException e) {
+				LOGGER.warn("Error writing compiled mappings {}", compiledFile.getFileName(), e);
+			}
+		}
+	}
+	private static void readCsv(byte[] csv, NameTable target) {
+		new BufferedReader(new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8)).lines().skip(1L).map(s -> s.split(","))
+				.forEach(names -> target.put(names[0], names[1])); // [0] is srg name, [1] is mcp name
+	}
 }
\ No newline at end of file
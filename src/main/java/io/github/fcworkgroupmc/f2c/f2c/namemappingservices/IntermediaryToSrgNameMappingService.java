@@ -20,46 +20,42 @@ package io.github.fcworkgroupmc.f2c.f2c.namemappingservices;
 import cpw.mods.modlauncher.api.IEnvironment;
 import cpw.mods.modlauncher.api.INameMappingService;
 import io.github.fcworkgroupmc.f2c.f2c.Metadata;
+import io.github.fcworkgroupmc.f2c.f2c.cache.CacheLock;
+import io.github.fcworkgroupmc.f2c.f2c.cache.RemoteCache;
+import io.github.fcworkgroupmc.f2c.f2c.util.HashUtil;
 import io.github.fcworkgroupmc.f2c.f2c.util.NetworkUtil;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import net.fabricmc.mapping.tree.*;
 import net.minecraftforge.fml.loading.FMLEnvironment;
-import net.minecraftforge.fml.loading.FMLPaths;
 import net.minecraftforge.fml.loading.progress.StartupMessageManager;
 import net.minecraftforge.srgutils.IMappingFile;
-import net.minecraftforge.srgutils.IRenamer;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.time.Duration;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.function.BiFunction;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
-import static io.github.fcworkgroupmc.f2c.f2c.Metadata.F2C_DIR;
 import static io.github.fcworkgroupmc.f2c.f2c.Metadata.isDevelopment;
 
 public class IntermediaryToSrgNameMappingService implements INameMappingService {
 	private static final Logger LOGGER = LogManager.getLogger();
-	static final Object2ObjectOpenHashMap<String, String> classes = new Object2ObjectOpenHashMap<>();
-	static final Object2ObjectOpenHashMap<String, String> fields = new Object2ObjectOpenHashMap<>();
-	static final Object2ObjectOpenHashMap<String, String> methods = new Object2ObjectOpenHashMap<>();
+	static final NameTable classes = new NameTable("class_");
+	static final NameTable fields = new NameTable("field_");
+	static final NameTable methods = new NameTable("method_");
+	private static String mappingsHash;
 	@Override
 	public String mappingName() {
 		return "intermediarytosrg";
@@ -90,179 +86,169 @@ public class IntermediaryToSrgNameMappingService implements INameMappingService
 			}
 		};
 	}
+	/**
+	 * @return hash identifying the loaded mapping set, including the mcp names when they are loaded
+	 */
+	public static String getMappingsHash() {
+		if(IntermediaryToMcpNameMappingService.mappingsHash == null) return mappingsHash;
+		return HashUtil.sha256(mappingsHash, IntermediaryToMcpNameMappingService.mappingsHash);
+	}
+	public static CompletableFuture<Void> load(String version, Path srgFile, Path intermediaryFile, Path compiledFile) throws IOException {
+		return load(version, srgFile, intermediaryFile, compiledFile, null);
+	}
+	/**
+	 * Loads the intermediary to srg names from a srg and an intermediary mapping file.
+	 * The names are read from the compiled mapping file if it was compiled from the same files, then from the one of the remote cache,
+	 * and they are compiled again otherwise, the compiled file being uploaded to the remote cache if {@link Metadata#REMOTE_CACHE_PUSH} is set.
+	 */
+	public static CompletableFuture<Void> load(String version, Path srgFile, Path intermediaryFile, Path compiledFile, RemoteCache remote) throws IOException {
+		mappingsHash = HashUtil.sha256(HashUtil.sha256(srgFile), HashUtil.sha256(intermediaryFile));
+		String key = version + "/" + mappingsHash;
+		if(MappingTable.read(compiledFile, key, classes, fields, methods)) {
+			LOGGER.debug("Loaded compiled mappings {}", compiledFile.getFileName());
+			return CompletableFuture.completedFuture(null);
+		}
+		if(MappingTable.fetch(remote, compiledFile, key) && MappingTable.read(compiledFile, key, classes, fields, methods)) {
+			LOGGER.debug("Loaded compiled mappings {} from the remote cache", compiledFile.getFileName());
+			return CompletableFuture.completedFuture(null);
+		}
+		return parse(srgFile, intermediaryFile, compiledFile.resolveSibling(version + "-unmatched.txt")).thenRun(() -> {
+			try {
+				MappingTable.write(compiledFile, key, classes, fields, methods);
+			} catch (IOException e) {
+				LOGGER.warn("Error writing compiled mappings {}", compiledFile.getFileName(), e);
+				return;
+			}
+			if(remote != null && Metadata.REMOTE_CACHE_PUSH) MappingTable.store(remote, compiledFile, key);
+		});
+	}
+	private static CompletableFuture<Void> parse(Path srgFile, Path intermediaryFile, Path reportFile) {
+		CompletableFuture<IMappingFile> srg = CompletableFuture.supplyAsync(() -> { // obf - srg
+			try(InputStream in = Files.newInputStream(srgFile)) {
+				return IMappingFile.load(in);
+			} catch (IOException e) {
+				LOGGER.fatal("Error loading srgnames mapping file", e);
+				throw new RuntimeException("Error loading srgnames mapping file", e);
+			}
+		});
+		CompletableFuture<TinyTree> intermediary = CompletableFuture.supplyAsync(() -> {
+			try(BufferedReader reader = Files.newBufferedReader(intermediaryFile, StandardCharsets.UTF_8)) {
+				return TinyMappingFactory.loadWithDetection(reader);
+			} catch (IOException e) {
+				LOGGER.fatal("Error loading intermediary mapping file", e);
+				throw new RuntimeException("Error loading intermediary mapping file", e);
+			}
+		});
+		return srg.thenAcceptBoth(intermediary, (srgNames, intermediaryNames) -> join(srgNames, intermediaryNames, reportFile));
+	}
+	/**
+	 * Joins the srg and intermediary names on the obfuscated names: the intermediary classes and members are indexed
+	 * by their obfuscated owner, name and descriptor, then each srg class and member is looked up once.
+	 * The srg names without an intermediary name are written to the report file instead of being logged one by one.
+	 */
+	private static void join(IMappingFile srgNames, TinyTree intermediaryNames, Path reportFile) {
+		Map<String, String> intermediaryClasses = new HashMap<>();
+		Map<String, String> intermediaryFields = new HashMap<>();
+		Map<String, String> intermediaryMethods = new HashMap<>();
+		for(ClassDef classDef : intermediaryNames.getClasses()) {
+			String owner = classDef.getName("official");
+			intermediaryClasses.put(owner, classDef.getName("intermediary"));
+			// the srg files have no field descriptors, the first field of a name wins like it did with the rename
+			for(FieldDef field : classDef.getFields())
+				intermediaryFields.putIfAbsent(owner + '/' + field.getName("official"), field.getName("intermediary"));
+			for(MethodDef method : classDef.getMethods())
+				intermediaryMethods.put(owner + '/' + method.getName("official") + method.getDescriptor("official"), method.getName("intermediary"));
+		}
+		List<String> unmatched = new ArrayList<>();
+		int unmatchedClasses = 0, unmatchedFields = 0, unmatchedMethods = 0;
+		for(IMappingFile.IClass srgClass : srgNames.getClasses()) {
+			String owner = srgClass.getOriginal();
+			String intermediaryClass = intermediaryClasses.get(owner);
+			if(intermediaryClass != null) classes.put(intermediaryClass, srgClass.getMapped());
+			else {
+				unmatched.add("class\t" + owner + "\t" + srgClass.getMapped());
+				unmatchedClasses++;
+			}
+			for(IMappingFile.IField field : srgClass.getFields()) {
+				String intermediaryField = intermediaryFields.get(owner + '/' + field.getOriginal());
+				if(intermediaryField != null) fields.put(intermediaryField, field.getMapped());
+				else {
+					unmatched.add("field\t" + owner + "\t" + field.getOriginal() + "\t" + field.getMapped());
+					unmatchedFields++;
+				}
+			}
+			for(IMappingFile.IMethod method : srgClass.getMethods()) {
+				String intermediaryMethod = intermediaryMethods.get(owner + '/' + method.getOriginal() + method.getDescriptor());
+				if(intermediaryMethod != null) methods.put(intermediaryMethod, method.getMapped());
+				else {
+					unmatched.add("method\t" + owner + "\t" + method.getOriginal() + method.getDescriptor() + "\t" + method.getMapped());
+					unmatchedMethods++;
+				}
+			}
+		}
+		try {
+			if(unmatched.isEmpty()) Files.deleteIfExists(reportFile);
+			else {
+				Files.write(reportFile, unmatched, StandardCharsets.UTF_8);
+				LOGGER.info("{} classes, {} fields and {} methods of the srg mappings have no intermediary name, see {}",
+						unmatchedClasses, unmatchedFields, unmatchedMethods, reportFile.getFileName());
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Error writing the unmatched mappings report {}", reportFile.getFileName(), e);
+		}
+	}
 	public static void init(String version, IEnvironment environment) {
 		try {
-			Path mappingsDir = environment.getProperty(IEnvironment.Keys.GAMEDIR.get()).orElse(FMLPaths.GAMEDIR.get()).resolve(F2C_DIR).resolve("mappings");
+			Path mappingsDir = Metadata.getCacheDir(environment).resolve("mappings");
 			Files.createDirectories(mappingsDir);
 			Path srgFile = mappingsDir.resolve(version + "-joined.tsrg");
 			Path srgFileCompleted = mappingsDir.resolve(version + "-joined.tsrg.complete");
 			Path intermediaryFile = mappingsDir.resolve(version + ".tiny");
 			Path intermediaryFileCompleted = mappingsDir.resolve(version + ".tiny.complete");
-			if(Files.notExists(srgFile) || Files.notExists(srgFileCompleted)) {
-				StartupMessageManager.addModMessage("F2C-Downloading srg obf mappings");
-				LOGGER.debug("Downloading srg obf mappings");
-				NetworkUtil.newBuilder("https://raw.githubusercontent.com/MinecraftForge/MCPConfig/master/versions/release/" + version + "/joined.tsrg")
-						.timeout(Duration.ofSeconds(5L)).connectAsync()
-						.thenAccept(connection -> {
-							try {
-								Files.copy(connection.asStream(), srgFile, StandardCopyOption.REPLACE_EXISTING);
-								Files.deleteIfExists(srgFileCompleted);
-								Files.createFile(srgFileCompleted);
-							} catch (IOException e) {
-								throw new RuntimeException(e);
-							} finally {
-								IOUtils.closeQuietly(connection);
-							}
-						}).get(5, TimeUnit.SECONDS);
-			}
-			if(Files.notExists(intermediaryFile) || Files.notExists(intermediaryFileCompleted)) {
-				StartupMessageManager.addModMessage("F2C-Downloading intermediary obf mappings");
-				LOGGER.debug("Downloading intermediary obf mappings");
-				NetworkUtil.newBuilder("https://raw.githubusercontent.com/FabricMC/intermediary/master/mappings/" + version + ".tiny")
-						.timeout(Duration.ofSeconds(5L)).connectAsync()
-						.thenAccept(connection -> {
-							try {
-								Files.copy(connection.asStream(), intermediaryFile, StandardCopyOption.REPLACE_EXISTING);
-								Files.deleteIfExists(intermediaryFileCompleted);
-								Files.createFile(intermediaryFileCompleted);
-							} catch (IOException e) {
-								throw new RuntimeException(e);
-							} finally {
-								IOUtils.closeQuietly(connection);
-							}
-						}).get(5, TimeUnit.SECONDS);
-			}
-			CompletableFuture.supplyAsync(() -> {
-				try(InputStream in = Files.newInputStream(srgFile)) {
-					return IMappingFile.load(in).reverse();
-				} catch (IOException e) {
-					LOGGER.fatal("Error loading srgnames mapping file", e);
-					throw new RuntimeException("Error loading srgnames mapping file", e);
+			List<MappingSource> sources = MappingSource.fromConfig();
+			try(CacheLock lock = CacheLock.lock(mappingsDir.resolve(version + ".lock"), "downloading the mappings of " + version)) { // the directory may be shared
+				List<CompletableFuture<Void>> downloads = new ArrayList<>();
+				if(Files.notExists(srgFile) || Files.notExists(srgFileCompleted)) {
+					StartupMessageManager.addModMessage("F2C-Fetching srg obf mappings");
+					LOGGER.debug("Fetching srg obf mappings");
+					downloads.add(fetchAsync(sources, srgFile, srgFileCompleted));
+				}
+				if(Files.notExists(intermediaryFile) || Files.notExists(intermediaryFileCompleted)) {
+					StartupMessageManager.addModMessage("F2C-Fetching intermediary obf mappings");
+					LOGGER.debug("Fetching intermediary obf mappings");
+					downloads.add(fetchAsync(sources, intermediaryFile, intermediaryFileCompleted));
 				}
-			}).thenAccept(mapping -> {
 				try {
-					CompletableFuture.supplyAsync(() -> {
-						try {
-							return IOUtils.buffer(new InputStreamReader(Files.newInputStream(intermediaryFile), StandardCharsets.UTF_8));
-						} catch (IOException e) {
-							throw new RuntimeException(e);
-						}
-					}).thenApply(reader -> {
-						try {
-							TinyTree intermediaryNames = TinyMappingFactory.loadWithDetection(reader);
-							Map<String, ClassDef> classMap = intermediaryNames.getClasses()
-									.stream().collect(Collectors.toMap(def -> def.getName("official"), Function.identity())); // by obf name
-							return mapping.rename(new IRenamer() { // (srg - obf)
-								@Override
-								public String rename(IMappingFile.IClass value) {
-									final ClassDef defaultClsDef = new ClassDef() {
-										private void throwEx() { throw new UnsupportedOperationException(); }
-										@Override
-										public Collection<MethodDef> getMethods() { throwEx(); return null; }
-										@Override
-										public Collection<FieldDef> getFields() { throwEx(); return null; }
-										@Override
-										public String getName(String s) { LOGGER.warn("mapping for class \"" + value.getMapped() + "\" not present"); return "MISSING"; }
-										@Override
-										public String getRawName(String s) { throwEx(); return null; }
-										@Override
-										public String getComment() { throwEx(); return null; }
-									};
-									return classMap.getOrDefault(value.getMapped(), defaultClsDef).getName("intermediary");
-								}
-								@Override
-								public String rename(IMappingFile.IField value) {
-									final ClassDef defaultClsDef = new ClassDef() {
-										private void throwEx() { throw new UnsupportedOperationException(); }
-										@Override
-										public Collection<MethodDef> getMethods() { throwEx(); return null; }
-										@Override
-										public Collection<FieldDef> getFields() { LOGGER.warn("mapping for class \"" + value.getParent().getMapped() + "\" not present"); return Collections.emptyList(); }
-										@Override
-										public String getName(String s) { throwEx(); return null; }
-										@Override
-										public String getRawName(String s) { throwEx(); return null; }
-										@Override
-										public String getComment() { throwEx(); return null; }
-									};
-									return classMap.getOrDefault(value.getParent().getMapped(), defaultClsDef).getFields().stream()
-											.filter(field -> field.getName("official").equals(value.getMapped()))
-											.findAny().orElse(new FieldDef() {
-												private void throwEx() { throw new UnsupportedOperationException(); }
-												@Override
-												public String getDescriptor(String s) { throwEx(); return null; }
-												@Override
-												public String getName(String s) { return "inherit"; }
-												@Override
-												public String getRawName(String s) { throwEx(); return null; }
-												@Override
-												public String getComment() { throwEx(); return null; }
-											}).getName("intermediary");
-								}
-								@Override
-								public String rename(IMappingFile.IMethod value) {
-									final ClassDef defaultClsDef = new ClassDef() {
-										private void throwEx() { throw new UnsupportedOperationException(); }
-										@Override
-										public Collection<MethodDef> getMethods() { LOGGER.warn("mapping for class \"" + value.getParent().getMapped() + "\" not present"); return Collections.emptyList(); }
-										@Override
-										public Collection<FieldDef> getFields() { throwEx(); return null; }
-										@Override
-										public String getName(String s) { throwEx(); return null; }
-										@Override
-										public String getRawName(String s) { throwEx(); return null; }
-										@Override
-										public String getComment() { throwEx(); return null; }
-									};
-									return classMap.getOrDefault(value.getParent().getMapped(), defaultClsDef).getMethods().stream()
-											.filter(method -> method.getName("official").equals(value.getMapped()) &&
-													method.getDescriptor("official").equals(value.getMappedDescriptor()))
-											.findAny().orElse(new MethodDef() {
-												private void throwEx() { throw new UnsupportedOperationException(); }
-												@Override
-												public Collection<ParameterDef> getParameters() { throwEx(); return null; }
-												@Override
-												public Collection<LocalVariableDef> getLocalVariables() { throwEx(); return null; }
-												@Override
-												public String getDescriptor(String s) { throwEx(); return null; }
-												@Override
-												public String getName(String s) { return "inherit"; }
-												@Override
-												public String getRawName(String s) { throwEx(); return null; }
-												@Override
-												public String getComment() { throwEx(); return null; }
-											}).getName("intermediary");
-								}
-							}).reverse(); // (intermediary - srg)
-						} catch (IOException e) {
-							LOGGER.fatal("Error loading intermediary mapping file", e);
-							throw new RuntimeException("Error loading intermediary mapping file", e);
-						} finally {
-							IOUtils.closeQuietly(reader);
-						}
-					}).thenAccept(map -> map.getClasses().forEach(c -> {
-						classes.put(c.getOriginal(), c.getMapped());
-						c.getFields().forEach(f -> {if(!f.getOriginal().equals("inherit")) fields.put(f.getOriginal(), f.getMapped());});
-						c.getMethods().forEach(m -> {if(!m.getOriginal().equals("inherit")) methods.put(m.getOriginal(), m.getMapped());});
-					})).get();
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();
+					CompletableFuture.allOf(downloads.toArray(new CompletableFuture[0])).join();
+				} catch (CompletionException e) {
+					StartupMessageManager.addModMessage("F2C-Fetching obf mappings-Failed");
+					StartupMessageManager.addModMessage("F2C-Exit in 3 seconds");
+					try {
+						Thread.sleep(3000);
+					}catch(InterruptedException ignored){}
+					throw new RuntimeException("Cannot fetch the obf mappings from " + sources, e.getCause());
 				}
-			}).thenAcceptAsync(v -> {
+			}
+			load(version, srgFile, intermediaryFile, mappingsDir.resolve(version + ".f2cmap"),
+					RemoteCache.fromUrl(Metadata.REMOTE_CACHE, Metadata.REMOTE_CACHE_AUTHORIZATION)).thenAcceptAsync(v -> {
 				if(isDevelopment() || FMLEnvironment.naming.equalsIgnoreCase("mcp"))
-					IntermediaryToMcpNameMappingService.init();
+					IntermediaryToMcpNameMappingService.init(mappingsDir, sources);
 			}).whenComplete((v, throwable) -> Metadata.funcReady()).get();
 		} catch (InterruptedException | ExecutionException e) {
 			LOGGER.fatal("Error when executing task", e);
-		} catch (TimeoutException e) {
-			StartupMessageManager.addModMessage("F2C-Downloading obf mappings-Timed out");
-			StartupMessageManager.addModMessage("F2C-Exit in 3 seconds");
-			try {
-				Thread.sleep(3000);
-			}catch(InterruptedException ignored){}
-			throw new RuntimeException("Connection timed out", e);
 		} catch (IOException e) {
 			LOGGER.fatal("IO error occurs", e);
 		}
 	}
+	private static CompletableFuture<Void> fetchAsync(List<MappingSource> sources, Path file, Path completedFile) {
+		return CompletableFuture.runAsync(() -> {
+			try {
+				Files.deleteIfExists(completedFile);
+				MappingSource.fetch(sources, file.getFileName().toString(), file);
+				Files.createFile(completedFile);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, NetworkUtil.downloadExecutor());
+	}
 }
\ No newline at end of file
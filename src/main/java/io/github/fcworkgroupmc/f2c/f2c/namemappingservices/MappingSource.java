@@ -0,0 +1,115 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.namemappingservices;
+
+import io.github.fcworkgroupmc.f2c.f2c.Metadata;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A place the mapping files are fetched from, such as the upstream repositories or a mirror of them.
+ * <p>
+ * The files are named {@code <version>-joined.tsrg} for the srg names, {@code <version>.tiny} for the intermediary names,
+ * and {@code fields.csv} and {@code methods.csv} for the mcp names.
+ */
+public interface MappingSource {
+	String SRG_SUFFIX = "-joined.tsrg";
+	String INTERMEDIARY_SUFFIX = ".tiny";
+	String MCP_FIELDS = "fields.csv";
+	String MCP_METHODS = "methods.csv";
+
+	/**
+	 * Copies a mapping file to the target, replacing it atomically.
+	 * @return whether the source has the file and it was written to the target
+	 */
+	boolean fetch(String name, Path target) throws IOException;
+
+	/**
+	 * @return the sources listed in {@link Metadata#MAPPING_SOURCES}, in order, without those which are not configured
+	 */
+	static List<MappingSource> fromConfig() {
+		List<MappingSource> sources = new ArrayList<>();
+		for(String name : Metadata.MAPPING_SOURCES.split(",")) {
+			MappingSource source = byName(name.trim());
+			if(source != null) sources.add(source);
+		}
+		return sources;
+	}
+	/**
+	 * @return the source of the given name or class name, {@code null} if it is unknown or not configured
+	 */
+	static MappingSource byName(String name) {
+		switch(name) {
+			case "":
+				return null;
+			case "bundled":
+				return new BundledMappingSource();
+			case "local":
+				return Metadata.MAPPINGS_DIR == null ? null : new DirectoryMappingSource(Paths.get(Metadata.MAPPINGS_DIR));
+			case "mirror":
+				return Metadata.MAPPINGS_MIRROR == null ? null : HttpMappingSource.mirror(Metadata.MAPPINGS_MIRROR);
+			case "upstream":
+				return HttpMappingSource.upstream();
+			default:
+				try {
+					return (MappingSource) Class.forName(name).getConstructor().newInstance();
+				} catch (ReflectiveOperationException | ClassCastException e) {
+					LogManager.getLogger().warn("Unknown mapping source {}", name, e);
+					return null;
+				}
+		}
+	}
+	/**
+	 * Fetches a mapping file from the first source having it.
+	 * @throws IOException if no source has the file
+	 */
+	static void fetch(List<MappingSource> sources, String name, Path target) throws IOException {
+		IOException failure = new IOException("No mapping source has " + name);
+		for(MappingSource source : sources) {
+			try {
+				if(source.fetch(name, target)) {
+					LogManager.getLogger().debug("Fetched {} from {}", name, source);
+					return;
+				}
+			} catch (IOException e) {
+				failure.addSuppressed(e);
+			}
+		}
+		throw failure;
+	}
+	/**
+	 * Replaces the target with the content of a stream, through a temporary file so the target is never left partly written.
+	 */
+	static void copy(InputStream in, Path target) throws IOException {
+		Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		try {
+			Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,162 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.namemappingservices;
+
+import io.github.fcworkgroupmc.f2c.f2c.cache.RemoteCache;
+import io.github.fcworkgroupmc.f2c.f2c.util.HashUtil;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Binary file holding name tables compiled from mapping files, so that later launches map it instead of parsing those files:
+ * the intermediary to srg class, field and method names compiled from the srg and intermediary mapping files,
+ * or the srg to mcp field and method names compiled from the MCP CSVs.
+ * <p>
+ * The file starts with the key it was compiled for, made of the hash of the mapping files,
+ * and is ignored when the key differs. Every table is then a count followed by pairs of length-prefixed UTF-8 names.
+ * <p>
+ * Compiled files may be shared through the {@link RemoteCache} of the processed mods, under the hash of their key.
+ */
+class MappingTable {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final int MAGIC = 0x4632434D; // F2CM
+	/** part of the file header and of the remote keys, bump it whenever the compiled tables change */
+	private static final int VERSION = 2;
+
+	/**
+	 * Reads a compiled mapping file into the given tables, which are left empty if it cannot be used.
+	 * @return whether the file exists and was compiled for the given key
+	 */
+	static boolean read(Path file, String key, NameTable... tables) {
+		if(Files.notExists(file)) return false;
+		ByteBuffer buffer = null;
+		try {
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !readString(buffer).equals(key)) return false;
+			for(NameTable table : tables) readTable(buffer, table);
+			return true;
+		} catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+			LOGGER.warn("Cannot read compiled mappings {}, compiling them again", file.getFileName(), e);
+			for(NameTable table : tables) table.clear();
+			return false;
+		} finally {
+			if(buffer != null) ZipReader.unmap(buffer); // the file may be replaced
+		}
+	}
+	private static void readTable(ByteBuffer buffer, NameTable table) {
+		for(int i = buffer.getInt(); i > 0; i--) table.put(readString(buffer), readString(buffer));
+	}
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the tables to a compiled mapping file for the given key, replacing it atomically.
+	 */
+	static void write(Path file, String key, NameTable... tables) throws IOException {
+		Path temp = file.resolveSibling(UUID.randomUUID().toString().replace("-", "") + ".tmp");
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 65536))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, key);
+				for(NameTable table : tables) writeTable(out, table);
+			}
+			moveAtomically(temp, file);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	/**
+	 * Fetches the compiled mapping file of the given key from the remote cache, replacing the file atomically.
+	 * @return whether the remote cache has it
+	 */
+	static boolean fetch(RemoteCache remote, Path file, String key) {
+		if(remote == null) return false;
+		Path temp = file.resolveSibling(UUID.randomUUID().toString().replace("-", "") + ".tmp");
+		try {
+			if(!remote.fetch(remoteKey(key), temp)) return false;
+			moveAtomically(temp, file); // another instance sharing the directory may be reading it
+			return true;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Error fetching compiled mappings {} from the remote cache", file.getFileName(), e);
+			return false;
+		} finally {
+			try {
+				Files.deleteIfExists(temp);
+			} catch (IOException ignored) {}
+		}
+	}
+	/**
+	 * Uploads a compiled mapping file to the remote cache.
+	 */
+	static void store(RemoteCache remote, Path file, String key) {
+		try {
+			remote.store(remoteKey(key), file);
+			LOGGER.debug("Uploaded compiled mappings {} to the remote cache", file.getFileName());
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Error uploading compiled mappings {} to the remote cache", file.getFileName(), e);
+		}
+	}
+	private static void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	private static String remoteKey(String key) {
+		return HashUtil.sha256("mappings", String.valueOf(VERSION), key);
+	}
+	private static void writeTable(DataOutputStream out, NameTable table) throws IOException {
+		out.writeInt(table.size());
+		List<String> names = new ArrayList<>(table.size() * 2);
+		table.forEach((name, mapped) -> {
+			names.add(name);
+			names.add(mapped);
+		});
+		for(String name : names) writeString(out, name);
+	}
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > 0xFFFF) throw new IOException("name too long: " + s);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}
\ No newline at end of file
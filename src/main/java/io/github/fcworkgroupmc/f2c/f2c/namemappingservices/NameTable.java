@@ -0,0 +1,109 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.namemappingservices;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Table of the names mapped from intermediary names, or from srg names.
+ * <p>
+ * Intermediary names end with a numeric id, {@code net/minecraft/class_1234}, {@code method_5678} or {@code field_910},
+ * so a name ending with the kind of the table and an id is stored in an array at that id, and looked up without hashing or allocating.
+ * The other names, like the srg names ending with a suffix after their id, and a name whose id is used by another one, are kept in a hash map.
+ */
+public class NameTable {
+	/** the largest id stored in the arrays, so an unexpected name cannot allocate huge arrays */
+	private static final int MAX_ID = 1 << 20;
+	private final String kind;
+	private String[] keys = new String[0];
+	private String[] names = new String[0];
+	private int size;
+	private final Object2ObjectOpenHashMap<String, String> others = new Object2ObjectOpenHashMap<>();
+	/**
+	 * @param kind what intermediary names of the table end with before their id, like {@code class_}
+	 */
+	public NameTable(String kind) {
+		this.kind = kind;
+	}
+
+	/**
+	 * @return the id of an intermediary name of the kind of the table, or -1
+	 */
+	private int id(String name) {
+		int end = name.length(), start = end;
+		while(start > 0 && end - start < 7) {
+			char c = name.charAt(start - 1);
+			if(c < '0' || c > '9') break;
+			start--;
+		}
+		if(start == end || !name.startsWith(kind, start - kind.length())) return -1;
+		int id = 0;
+		for(int i = start; i < end; i++) id = id * 10 + name.charAt(i) - '0';
+		return id <= MAX_ID ? id : -1;
+	}
+
+	public String get(String name) {
+		return getOrDefault(name, null);
+	}
+	public String getOrDefault(String name, String defaultName) {
+		int id = id(name);
+		if(id >= 0 && id < keys.length && name.equals(keys[id])) return names[id];
+		if(others.isEmpty()) return defaultName;
+		return others.getOrDefault(name, defaultName);
+	}
+	public void put(String name, String mapped) {
+		int id = id(name);
+		if(id >= 0) {
+			if(id >= keys.length) {
+				int length = Math.min(MAX_ID + 1, Math.max(id + 1, keys.length + (keys.length >> 1)));
+				keys = Arrays.copyOf(keys, length);
+				names = Arrays.copyOf(names, length);
+			}
+			if(keys[id] == null) {
+				keys[id] = name;
+				names[id] = mapped;
+				size++;
+				return;
+			}
+			if(keys[id].equals(name)) {
+				names[id] = mapped;
+				return;
+			}
+		}
+		others.put(name, mapped);
+	}
+	public int size() {
+		return size + others.size();
+	}
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	public void clear() {
+		keys = new String[0];
+		names = new String[0];
+		size = 0;
+		others.clear();
+	}
+	public void forEach(BiConsumer<String, String> action) {
+		for(int id = 0; id < keys.length; id++) if(keys[id] != null) action.accept(keys[id], names[id]);
+		others.forEach(action);
+	}
+}
\ No newline at end of file
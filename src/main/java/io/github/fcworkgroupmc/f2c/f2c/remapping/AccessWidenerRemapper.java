@@ -0,0 +1,78 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.remapping;
+
+import io.github.fcworkgroupmc.f2c.f2c.FabricObfProcessor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compiles an access widener from the {@code intermediary} namespace to the naming of the game ahead of time.
+ * <p>
+ * The remapped file declares the naming as its namespace, which {@link net.fabricmc.loader.transformer.accesswidener.AccessWidener}
+ * reads as is. Comments and blank lines are dropped.
+ */
+public class AccessWidenerRemapper {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final String INTERMEDIARY = "intermediary";
+
+	private final FabricObfProcessor.FabricModRemapper remapper;
+	private final String naming;
+	public AccessWidenerRemapper(FabricObfProcessor.FabricModRemapper remapper, String naming) {
+		this.remapper = remapper;
+		this.naming = naming;
+	}
+
+	/**
+	 * @return the remapped access widener, or the original one if it is not an {@code intermediary} v1 access widener
+	 */
+	public byte[] remap(byte[] accessWidener) {
+		String[] lines = new String(accessWidener, StandardCharsets.UTF_8).split("\r?\n");
+		String[] header = lines[0].trim().split("\\s+");
+		if(header.length != 3 || !header[0].equals("accessWidener") || !header[1].equals("v1") || !header[2].equals(INTERMEDIARY)) {
+			LOGGER.debug("Not an intermediary v1 access widener, leaving it as-is");
+			return accessWidener;
+		}
+		StringBuilder remapped = new StringBuilder(accessWidener.length + accessWidener.length / 4);
+		remapped.append("accessWidener\tv1\t").append(naming).append('\n');
+		for(int i = 1; i < lines.length; i++) {
+			String line = lines[i];
+			int commentPos = line.indexOf('#');
+			if(commentPos >= 0) line = line.substring(0, commentPos);
+			line = line.trim();
+			if(line.isEmpty()) continue;
+			String[] split = line.split("\\s+");
+			if(split.length == 3 && split[1].equals("class")) {
+				remapped.append(split[0]).append("\tclass\t").append(remapper.map(split[2]));
+			} else if(split.length == 5 && split[1].equals("field")) {
+				remapped.append(split[0]).append("\tfield\t").append(remapper.map(split[2])).append('\t')
+						.append(remapper.mapFieldName(split[2], split[3], split[4])).append('\t').append(remapper.mapDesc(split[4]));
+			} else if(split.length == 5 && split[1].equals("method")) {
+				remapped.append(split[0]).append("\tmethod\t").append(remapper.map(split[2])).append('\t')
+						.append(remapper.mapMethodName(split[2], split[3], split[4])).append('\t').append(remapper.mapMethodDesc(split[4]));
+			} else { // let the loader report it
+				LOGGER.debug("Invalid access widener line {}, leaving the file as-is", line);
+				return accessWidener;
+			}
+			remapped.append('\n');
+		}
+		return remapped.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
\ No newline at end of file
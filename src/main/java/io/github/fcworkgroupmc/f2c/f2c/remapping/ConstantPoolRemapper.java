@@ -0,0 +1,563 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.remapping;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remaps a class by rewriting its constant pool only, the rest of the class file is copied as-is.
+ * <p>
+ * Every name and descriptor of a class is a Utf8 constant, referenced either from other constants or from the class
+ * structure (members, signatures, annotations, local variables...). A Utf8 constant whose references all agree on the
+ * remapped value is rewritten in place. Otherwise, like when it is also used as a string literal, the remapped value is
+ * appended to the pool and the references that need it are redirected. A NameAndType constant used by references
+ * remapped differently, like an invokedynamic and a method reference, is cloned the same way.
+ * <p>
+ * Indices of existing constants never change, so the bytecode needs no rewriting. When the class has an attribute
+ * this remapper does not know, no constant is rewritten in place, keeping the attribute valid like ASM does.
+ * <p>
+ * The result is meant to be the same as the one of {@link org.objectweb.asm.commons.ClassRemapper} with the same remapper,
+ * which can be checked with {@link #isEquivalent(byte[], byte[])}.
+ */
+public class ConstantPoolRemapper {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final int UTF8 = 1, INTEGER = 3, FLOAT = 4, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8, FIELDREF = 9,
+			METHODREF = 10, INTERFACE_METHODREF = 11, NAME_AND_TYPE = 12, METHOD_HANDLE = 15, METHOD_TYPE = 16, DYNAMIC = 17,
+			INVOKE_DYNAMIC = 18, MODULE = 19, PACKAGE = 20;
+
+	private final Remapper remapper;
+	public ConstantPoolRemapper(Remapper remapper) {
+		this.remapper = remapper;
+	}
+
+	/**
+	 * @return the remapped class, or {@code null} if this class cannot be remapped this way and ASM should be used instead
+	 */
+	public byte[] remap(byte[] classFile) {
+		try {
+			return new Rewriter(classFile).rewrite();
+		} catch (UnsupportedOperationException e) {
+			LOGGER.debug("Cannot remap class in its constant pool: {}", e.getMessage());
+			return null;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.debug("Error remapping class in its constant pool", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return whether both classes are the same once written again by ASM, so the order of the constants, unused constants and
+	 * the encoding of stack map frames do not matter
+	 */
+	public static boolean isEquivalent(byte[] a, byte[] b) {
+		return Arrays.equals(canonicalize(a), canonicalize(b));
+	}
+	private static byte[] canonicalize(byte[] classFile) {
+		ClassReader reader = new ClassReader(classFile);
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		reader.accept(writer, ClassReader.EXPAND_FRAMES);
+		return writer.toByteArray();
+	}
+
+	private enum RefKind {
+		FIELD, METHOD, INVOKE_DYNAMIC, DYNAMIC
+	}
+	/**
+	 * A reference to a Utf8 constant, either from another constant or from the class structure, and the value it needs.
+	 */
+	private static class Site {
+		final int utf8;
+		final String value;
+		final int entry; // the constant holding the reference, or -1
+		final boolean second; // whether it is the second index of that constant
+		final int offset; // the offset of the reference in the class file when it is not in a constant
+		Site(int utf8, String value, int entry, boolean second, int offset) {
+			this.utf8 = utf8;
+			this.value = value;
+			this.entry = entry;
+			this.second = second;
+			this.offset = offset;
+		}
+	}
+	/**
+	 * A reference to a NameAndType constant and how it is remapped.
+	 */
+	private static class NameAndTypeUse {
+		final RefKind kind;
+		final String owner;
+		final int entry; // the referencing constant, or -1
+		final int offset; // the offset of the reference in the class file when it is not in a constant
+		NameAndTypeUse(RefKind kind, String owner, int entry, int offset) {
+			this.kind = kind;
+			this.owner = owner;
+			this.entry = entry;
+			this.offset = offset;
+		}
+	}
+
+	private class Rewriter {
+		private final byte[] b;
+		private final int originalCount;
+		private int count;
+		private int[] tags;
+		private int[] offsets;
+		private int[] first;
+		private int[] second;
+		private String[] strings;
+		private int poolEnd;
+
+		private final List<Site> sites = new ArrayList<>();
+		private boolean[] pinned;
+		private boolean[] rewritten;
+		private final Map<Integer, List<NameAndTypeUse>> nameAndTypeUses = new HashMap<>();
+		private final Map<Integer, Integer> patches = new HashMap<>();
+		private final Map<String, Integer> appendedStrings = new HashMap<>();
+		private boolean appendOnly;
+		private String className;
+		Rewriter(byte[] classFile) {
+			this.b = classFile;
+			if(u4(0) != 0xCAFEBABE) throw new IllegalArgumentException("Not a class file");
+			this.originalCount = u2(8);
+			this.count = originalCount;
+			this.tags = new int[originalCount + 16];
+			this.offsets = new int[originalCount];
+			this.first = new int[tags.length];
+			this.second = new int[tags.length];
+			this.strings = new String[tags.length];
+			this.pinned = new boolean[originalCount];
+			this.rewritten = new boolean[originalCount];
+		}
+
+		byte[] rewrite() throws IOException {
+			readPool();
+			int pos = poolEnd;
+			className = classNameOf(u2(pos + 2));
+			pos += 8 + u2(pos + 6) * 2;
+			int fields = u2(pos);
+			pos += 2;
+			for(int i = 0; i < fields; i++) pos = readMember(pos, false);
+			int methods = u2(pos);
+			pos += 2;
+			for(int i = 0; i < methods; i++) pos = readMember(pos, true);
+			readAttributes(pos, false);
+			collectPoolReferences();
+			resolveNameAndTypes();
+			resolveSites();
+			return write();
+		}
+
+		private void readPool() throws IOException {
+			int pos = 10;
+			for(int i = 1; i < originalCount; i++) {
+				int tag = b[pos] & 0xFF;
+				tags[i] = tag;
+				offsets[i] = pos;
+				switch(tag) {
+					case UTF8:
+						int length = u2(pos + 1);
+						strings[i] = readUtf8(pos, length);
+						pos += 3 + length;
+						break;
+					case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE:
+						first[i] = u2(pos + 1);
+						pos += 3;
+						break;
+					case METHOD_HANDLE:
+						first[i] = b[pos + 1] & 0xFF;
+						second[i] = u2(pos + 2);
+						pos += 4;
+						break;
+					case FIELDREF: case METHODREF: case INTERFACE_METHODREF: case NAME_AND_TYPE: case DYNAMIC: case INVOKE_DYNAMIC:
+						first[i] = u2(pos + 1);
+						second[i] = u2(pos + 3);
+						pos += 5;
+						break;
+					case INTEGER: case FLOAT:
+						pos += 5;
+						break;
+					case LONG: case DOUBLE:
+						pos += 9;
+						i++;
+						break;
+					default:
+						throw new UnsupportedOperationException("unknown constant pool tag " + tag);
+				}
+			}
+			poolEnd = pos;
+		}
+		private String readUtf8(int pos, int length) throws IOException {
+			for(int i = pos + 3; i < pos + 3 + length; i++) {
+				if(b[i] <= 0) // modified UTF-8
+					return new DataInputStream(new ByteArrayInputStream(b, pos + 1, length + 2)).readUTF();
+			}
+			return new String(b, pos + 3, length, StandardCharsets.ISO_8859_1);
+		}
+		private String utf8(int index) {
+			if(tags[index] != UTF8) throw new IllegalArgumentException("constant " + index + " is not a Utf8");
+			return strings[index];
+		}
+		private String classNameOf(int index) {
+			if(tags[index] != CLASS) throw new IllegalArgumentException("constant " + index + " is not a Class");
+			return utf8(first[index]);
+		}
+
+		private int readMember(int pos, boolean method) {
+			int nameIndex = u2(pos + 2);
+			int descIndex = u2(pos + 4);
+			String name = utf8(nameIndex);
+			String desc = utf8(descIndex);
+			if(method) {
+				site(nameIndex, remapper.mapMethodName(className, name, desc), pos + 2);
+				site(descIndex, remapper.mapMethodDesc(desc), pos + 4);
+			} else {
+				site(nameIndex, remapper.mapFieldName(className, name, desc), pos + 2);
+				site(descIndex, remapper.mapDesc(desc), pos + 4);
+			}
+			return readAttributes(pos + 6, !method);
+		}
+		/**
+		 * @return the offset right after the attributes
+		 */
+		private int readAttributes(int pos, boolean typeSignature) {
+			int attributes = u2(pos);
+			pos += 2;
+			for(int i = 0; i < attributes; i++) {
+				pin(u2(pos));
+				String name = utf8(u2(pos));
+				int start = pos + 6;
+				int end = start + u4(pos + 2);
+				switch(name) {
+					case "Signature":
+						int signature = u2(start);
+						site(signature, remapper.mapSignature(utf8(signature), typeSignature), start);
+						break;
+					case "Code":
+						int exceptionTable = start + 8 + u4(start + 4);
+						readAttributes(exceptionTable + 2 + u2(exceptionTable) * 8, false);
+						break;
+					case "LocalVariableTable":
+					case "LocalVariableTypeTable":
+						boolean types = name.equals("LocalVariableTypeTable");
+						for(int j = 0, n = u2(start), p = start + 2; j < n; j++, p += 10) {
+							pin(u2(p + 4));
+							int desc = u2(p + 6);
+							site(desc, types ? remapper.mapSignature(utf8(desc), true) : remapper.mapDesc(utf8(desc)), p + 6);
+						}
+						break;
+					case "InnerClasses":
+						for(int j = 0, n = u2(start), p = start + 2; j < n; j++, p += 8) pin(u2(p + 4));
+						break;
+					case "EnclosingMethod":
+						int method = u2(start + 2);
+						if(method != 0) useNameAndType(method, RefKind.METHOD, classNameOf(u2(start)), -1, start + 2);
+						break;
+					case "MethodParameters":
+						for(int j = 0, n = b[start] & 0xFF, p = start + 1; j < n; j++, p += 4) pin(u2(p));
+						break;
+					case "SourceFile":
+						pin(u2(start));
+						break;
+					case "RuntimeVisibleAnnotations":
+					case "RuntimeInvisibleAnnotations":
+						for(int j = 0, n = u2(start), p = start + 2; j < n; j++) p = readAnnotation(p);
+						break;
+					case "RuntimeVisibleParameterAnnotations":
+					case "RuntimeInvisibleParameterAnnotations":
+						for(int j = 0, n = b[start] & 0xFF, p = start + 1; j < n; j++) {
+							int annotations = u2(p);
+							p += 2;
+							for(int k = 0; k < annotations; k++) p = readAnnotation(p);
+						}
+						break;
+					case "RuntimeVisibleTypeAnnotations":
+					case "RuntimeInvisibleTypeAnnotations":
+						for(int j = 0, n = u2(start), p = start + 2; j < n; j++) p = readTypeAnnotation(p);
+						break;
+					case "AnnotationDefault":
+						readElementValue(start);
+						break;
+					case "ConstantValue": case "Exceptions": case "LineNumberTable": case "StackMapTable": case "BootstrapMethods":
+					case "NestHost": case "NestMembers": case "PermittedSubclasses": case "SourceDebugExtension":
+					case "Deprecated": case "Synthetic":
+						break; // only references to constants which are not Utf8
+					case "Record": case "Module": case "ModulePackages": case "ModuleMainClass":
+						throw new UnsupportedOperationException(name + " attribute");
+					default:
+						appendOnly = true; // the attribute may reference any constant
+				}
+				pos = end;
+			}
+			return pos;
+		}
+		private int readAnnotation(int pos) {
+			int type = u2(pos);
+			site(type, remapper.mapDesc(utf8(type)), pos);
+			int pairs = u2(pos + 2);
+			pos += 4;
+			for(int i = 0; i < pairs; i++) {
+				pin(u2(pos));
+				pos = readElementValue(pos + 2);
+			}
+			return pos;
+		}
+		private int readElementValue(int pos) {
+			switch(b[pos]) {
+				case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z':
+					return pos + 3;
+				case 's':
+					pin(u2(pos + 1));
+					return pos + 3;
+				case 'e':
+					int enumType = u2(pos + 1);
+					site(enumType, remapper.mapDesc(utf8(enumType)), pos + 1);
+					pin(u2(pos + 3));
+					return pos + 5;
+				case 'c':
+					int classInfo = u2(pos + 1);
+					site(classInfo, remapper.mapDesc(utf8(classInfo)), pos + 1);
+					return pos + 3;
+				case '@':
+					return readAnnotation(pos + 1);
+				case '[':
+					int values = u2(pos + 1);
+					pos += 3;
+					for(int i = 0; i < values; i++) pos = readElementValue(pos);
+					return pos;
+				default:
+					throw new IllegalArgumentException("unknown element value tag " + (char) b[pos]);
+			}
+		}
+		private int readTypeAnnotation(int pos) {
+			int target = b[pos] & 0xFF;
+			pos++;
+			switch(target) {
+				case 0x00: case 0x01: case 0x16:
+					pos += 1;
+					break;
+				case 0x10: case 0x11: case 0x12: case 0x17: case 0x42: case 0x43: case 0x44: case 0x45: case 0x46:
+					pos += 2;
+					break;
+				case 0x13: case 0x14: case 0x15:
+					break;
+				case 0x40: case 0x41:
+					pos += 2 + u2(pos) * 6;
+					break;
+				case 0x47: case 0x48: case 0x49: case 0x4A: case 0x4B:
+					pos += 3;
+					break;
+				default:
+					throw new IllegalArgumentException("unknown type annotation target " + target);
+			}
+			pos += 1 + (b[pos] & 0xFF) * 2; // type_path
+			return readAnnotation(pos);
+		}
+
+		private void collectPoolReferences() {
+			for(int i = 1; i < originalCount; i++) {
+				switch(tags[i]) {
+					case CLASS:
+						site(first[i], remapper.mapType(utf8(first[i])), i, false);
+						break;
+					case METHOD_TYPE:
+						site(first[i], remapper.mapMethodDesc(utf8(first[i])), i, false);
+						break;
+					case STRING: case MODULE: case PACKAGE:
+						pin(first[i]);
+						break;
+					case FIELDREF:
+						useNameAndType(second[i], RefKind.FIELD, classNameOf(first[i]), i, -1);
+						break;
+					case METHODREF: case INTERFACE_METHODREF:
+						useNameAndType(second[i], RefKind.METHOD, classNameOf(first[i]), i, -1);
+						break;
+					case INVOKE_DYNAMIC:
+						useNameAndType(second[i], RefKind.INVOKE_DYNAMIC, null, i, -1);
+						break;
+					case DYNAMIC:
+						useNameAndType(second[i], RefKind.DYNAMIC, null, i, -1);
+						break;
+				}
+			}
+		}
+		private void useNameAndType(int index, RefKind kind, String owner, int entry, int offset) {
+			if(tags[index] != NAME_AND_TYPE) throw new IllegalArgumentException("constant " + index + " is not a NameAndType");
+			nameAndTypeUses.computeIfAbsent(index, k -> new ArrayList<>()).add(new NameAndTypeUse(kind, owner, entry, offset));
+		}
+		/**
+		 * Gives every NameAndType constant the value each of its uses needs, cloning it when they need different ones.
+		 */
+		private void resolveNameAndTypes() {
+			for(int i = 1; i < originalCount; i++) {
+				if(tags[i] != NAME_AND_TYPE) continue;
+				List<NameAndTypeUse> uses = nameAndTypeUses.get(i);
+				if(uses == null) { // unused, leave it as it is
+					pin(first[i]);
+					pin(second[i]);
+					continue;
+				}
+				String name = utf8(first[i]);
+				String desc = utf8(second[i]);
+				Map<List<String>, Integer> clones = new LinkedHashMap<>();
+				for(NameAndTypeUse use : uses) {
+					List<String> mapped = mapNameAndType(use, name, desc);
+					Integer index = clones.get(mapped);
+					if(index == null) {
+						index = clones.isEmpty() ? i : append(NAME_AND_TYPE, first[i], second[i], null);
+						clones.put(mapped, index);
+						site(first[i], mapped.get(0), index, false);
+						site(second[i], mapped.get(1), index, true);
+					}
+					if(index == i) continue;
+					if(use.entry != -1) second[use.entry] = index;
+					else patches.put(use.offset, index);
+				}
+			}
+		}
+		private List<String> mapNameAndType(NameAndTypeUse use, String name, String desc) {
+			switch(use.kind) {
+				case FIELD:
+					return Arrays.asList(remapper.mapFieldName(use.owner, name, desc), remapper.mapDesc(desc));
+				case METHOD:
+					return Arrays.asList(remapper.mapMethodName(use.owner, name, desc), remapper.mapMethodDesc(desc));
+				case INVOKE_DYNAMIC:
+					return Arrays.asList(remapper.mapInvokeDynamicMethodName(name, desc), remapper.mapMethodDesc(desc));
+				default:
+					return Arrays.asList(remapper.mapInvokeDynamicMethodName(name, desc), remapper.mapDesc(desc));
+			}
+		}
+		/**
+		 * Rewrites each Utf8 constant in place when all of its references agree on its value, and otherwise appends the values
+		 * that differ and redirects the references needing them.
+		 */
+		private void resolveSites() {
+			String[] values = new String[originalCount];
+			boolean[] conflicts = new boolean[originalCount];
+			for(Site site : sites) {
+				if(values[site.utf8] == null) values[site.utf8] = site.value;
+				else if(!values[site.utf8].equals(site.value)) conflicts[site.utf8] = true;
+			}
+			for(Site site : sites) {
+				String original = strings[site.utf8];
+				if(site.value.equals(original)) continue;
+				if(!appendOnly && !pinned[site.utf8] && !conflicts[site.utf8]) {
+					strings[site.utf8] = site.value; // the same for every site, rewritten once
+					rewritten[site.utf8] = true;
+					continue;
+				}
+				int index = appendedStrings.computeIfAbsent(site.value, value -> append(UTF8, 0, 0, value));
+				if(site.entry == -1) patches.put(site.offset, index);
+				else if(site.second) second[site.entry] = index;
+				else first[site.entry] = index;
+			}
+		}
+		private int append(int tag, int first, int second, String string) {
+			if(count >= 0xFFFF) throw new UnsupportedOperationException("constant pool overflow");
+			if(count == tags.length) {
+				tags = Arrays.copyOf(tags, count * 2);
+				this.first = Arrays.copyOf(this.first, count * 2);
+				this.second = Arrays.copyOf(this.second, count * 2);
+				strings = Arrays.copyOf(strings, count * 2);
+			}
+			tags[count] = tag;
+			this.first[count] = first;
+			this.second[count] = second;
+			strings[count] = string;
+			return count++;
+		}
+		private void site(int utf8, String value, int offset) {
+			sites.add(new Site(utf8, value, -1, false, offset));
+		}
+		private void site(int utf8, String value, int entry, boolean second) {
+			sites.add(new Site(utf8, value, entry, second, -1));
+		}
+		private void pin(int utf8) {
+			if(utf8 != 0) pinned[utf8] = true;
+		}
+
+		private byte[] write() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(b.length + (count - originalCount) * 32 + 64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.write(b, 0, 8);
+			out.writeShort(count);
+			for(int i = 1; i < count; i++) {
+				int tag = tags[i];
+				switch(tag) {
+					case UTF8:
+						if(i < originalCount && !rewritten[i]) out.write(b, offsets[i], 3 + u2(offsets[i] + 1));
+						else {
+							out.writeByte(UTF8);
+							out.writeUTF(strings[i]);
+						}
+						break;
+					case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE:
+						out.writeByte(tag);
+						out.writeShort(first[i]);
+						break;
+					case METHOD_HANDLE:
+						out.writeByte(tag);
+						out.writeByte(first[i]);
+						out.writeShort(second[i]);
+						break;
+					case FIELDREF: case METHODREF: case INTERFACE_METHODREF: case NAME_AND_TYPE: case DYNAMIC: case INVOKE_DYNAMIC:
+						out.writeByte(tag);
+						out.writeShort(first[i]);
+						out.writeShort(second[i]);
+						break;
+					case INTEGER: case FLOAT:
+						out.write(b, offsets[i], 5);
+						break;
+					case LONG: case DOUBLE:
+						out.write(b, offsets[i], 9);
+						i++;
+						break;
+				}
+			}
+			byte[] tail = Arrays.copyOfRange(b, poolEnd, b.length);
+			for(Map.Entry<Integer, Integer> patch : patches.entrySet()) {
+				int pos = patch.getKey() - poolEnd;
+				tail[pos] = (byte) (patch.getValue() >>> 8);
+				tail[pos + 1] = patch.getValue().byteValue();
+			}
+			out.write(tail);
+			return bytes.toByteArray();
+		}
+		private int u2(int pos) {
+			return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+		}
+		private int u4(int pos) {
+			return (u2(pos) << 16) | u2(pos + 2);
+		}
+	}
+}
\ No newline at end of file
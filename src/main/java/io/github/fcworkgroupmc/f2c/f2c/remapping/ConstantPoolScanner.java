@@ -0,0 +1,106 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.remapping;
+
+/**
+ * Scans the constant pool of a class file without parsing the rest of it.
+ * <p>
+ * Every name or descriptor a class references is a Utf8 constant, so a class with no {@code class_<n>},
+ * {@code method_<n>} or {@code field_<n>} in its Utf8 constants has nothing the remapper would change,
+ * and a class without the descriptor of an {@code Environment} annotation has nothing to strip.
+ */
+public class ConstantPoolScanner {
+	/** the class may reference intermediary names */
+	public static final int INTERMEDIARY = 1;
+	/** the class may use {@code @Environment}, {@code @EnvironmentInterface} or {@code @EnvironmentInterfaces} */
+	public static final int ENVIRONMENT = 2;
+	private static final int ALL = INTERMEDIARY | ENVIRONMENT;
+	private static final byte[][] TOKENS = {
+			"class_".getBytes(), "method_".getBytes(), "field_".getBytes()
+	};
+	private static final byte[] ENVIRONMENT_PREFIX = "Lnet/fabricmc/api/Environment".getBytes();
+
+	/**
+	 * @return whether the class may reference intermediary names, {@code true} if the class cannot be scanned
+	 */
+	public static boolean hasIntermediaryNames(byte[] classFile) {
+		return (scan(classFile) & INTERMEDIARY) != 0;
+	}
+	/**
+	 * @return the {@link #INTERMEDIARY} and {@link #ENVIRONMENT} flags the class may need, all of them if the class cannot be scanned
+	 */
+	public static int scan(byte[] classFile) {
+		try {
+			if(u4(classFile, 0) != 0xCAFEBABE) return ALL;
+			int flags = 0;
+			int count = u2(classFile, 8);
+			int pos = 10;
+			for(int i = 1; i < count; i++) {
+				switch(classFile[pos]) {
+					case 1: // Utf8
+						int length = u2(classFile, pos + 1);
+						if(containsToken(classFile, pos + 3, pos + 3 + length)) flags |= INTERMEDIARY;
+						if(length >= ENVIRONMENT_PREFIX.length && classFile[pos + 3] == 'L' && matches(classFile, pos + 3, ENVIRONMENT_PREFIX))
+							flags |= ENVIRONMENT;
+						if(flags == ALL) return ALL;
+						pos += 3 + length;
+						break;
+					case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+						pos += 3;
+						break;
+					case 15: // MethodHandle
+						pos += 4;
+						break;
+					case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // Integer, Float, refs, NameAndType, Dynamic, InvokeDynamic
+						pos += 5;
+						break;
+					case 5: case 6: // Long, Double, which take two entries
+						pos += 9;
+						i++;
+						break;
+					default:
+						return ALL;
+				}
+			}
+			return flags;
+		} catch (ArrayIndexOutOfBoundsException e) { // truncated, let ASM report it
+			return ALL;
+		}
+	}
+	private static boolean containsToken(byte[] b, int start, int end) {
+		for(int i = start; i < end; i++) {
+			byte c = b[i];
+			if(c != 'c' && c != 'm' && c != 'f') continue;
+			for(byte[] token : TOKENS) {
+				int digit = i + token.length;
+				if(digit < end && b[digit] >= '0' && b[digit] <= '9' && matches(b, i, token)) return true;
+			}
+		}
+		return false;
+	}
+	private static boolean matches(byte[] b, int pos, byte[] token) {
+		for(int i = 0; i < token.length; i++) if(b[pos + i] != token[i]) return false;
+		return true;
+	}
+	private static int u2(byte[] b, int pos) {
+		return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+	}
+	private static int u4(byte[] b, int pos) {
+		return (u2(b, pos) << 16) | u2(b, pos + 2);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,178 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.remapping;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.github.fcworkgroupmc.f2c.f2c.FabricObfProcessor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Remaps a Mixin refmap in a single streaming pass.
+ * <p>
+ * The references in {@code mappings} are remapped in place, and the {@code named:intermediary} environment
+ * of {@code data} is kept and copied, remapped, to {@code named:<naming>}.
+ */
+public class RefMapRemapper {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final String INTERMEDIARY = "named:intermediary";
+
+	private final FabricObfProcessor.FabricModRemapper remapper;
+	private final String naming;
+	private final String target;
+	public RefMapRemapper(FabricObfProcessor.FabricModRemapper remapper, String naming) {
+		this.remapper = remapper;
+		this.naming = naming;
+		this.target = "named:" + naming;
+	}
+
+	/**
+	 * @return the remapped refmap, or the original refmap if it cannot be read
+	 */
+	public byte[] remap(byte[] refMap) {
+		try {
+			if(!naming.equalsIgnoreCase("srg") && !naming.equalsIgnoreCase("mcp")) throw new IllegalStateException("Invalid naming!");
+			ByteArrayOutputStream out = new ByteArrayOutputStream(refMap.length + refMap.length / 2);
+			try(JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(refMap), StandardCharsets.UTF_8));
+			    JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+				reader.beginObject();
+				writer.beginObject();
+				while(reader.hasNext()) {
+					String name = reader.nextName();
+					writer.name(name);
+					if(name.equals("mappings")) remapEntries(reader, writer, null);
+					else if(name.equals("data")) remapData(reader, writer);
+					else copy(reader, writer);
+				}
+				reader.endObject();
+				writer.endObject();
+			}
+			return out.toByteArray();
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Error remapping refmap, leaving it as-is", e);
+			return refMap;
+		}
+	}
+
+	private void remapData(JsonReader reader, JsonWriter writer) throws IOException {
+		StringWriter remapped = null;
+		String existing = null;
+		reader.beginObject();
+		writer.beginObject();
+		while(reader.hasNext()) {
+			String name = reader.nextName();
+			if(name.equals(target)) { // replaced by the remapped intermediary environment if there is one
+				StringWriter buffer = new StringWriter();
+				try(JsonWriter bufferWriter = new JsonWriter(buffer)) {
+					copy(reader, bufferWriter);
+				}
+				existing = buffer.toString();
+				continue;
+			}
+			writer.name(name);
+			if(name.equals(INTERMEDIARY)) {
+				remapped = new StringWriter();
+				try(JsonWriter remappedWriter = new JsonWriter(remapped)) {
+					remapEntries(reader, writer, remappedWriter);
+				}
+			} else copy(reader, writer);
+		}
+		if(remapped != null) writer.name(target).jsonValue(remapped.toString());
+		else if(existing != null) writer.name(target).jsonValue(existing);
+		reader.endObject();
+		writer.endObject();
+	}
+	/**
+	 * Reads a {@code {class: {reference: target}}} object. Without a second writer the targets are written remapped,
+	 * otherwise they are written as-is to the first writer and remapped to the second one.
+	 */
+	private void remapEntries(JsonReader reader, JsonWriter original, JsonWriter remapped) throws IOException {
+		reader.beginObject();
+		original.beginObject();
+		if(remapped != null) remapped.beginObject();
+		while(reader.hasNext()) {
+			String owner = reader.nextName();
+			original.name(owner);
+			if(remapped != null) remapped.name(owner);
+			reader.beginObject();
+			original.beginObject();
+			if(remapped != null) remapped.beginObject();
+			while(reader.hasNext()) {
+				String reference = reader.nextName();
+				String value = reader.nextString();
+				if(remapped != null) {
+					original.name(reference).value(value);
+					remapped.name(reference).value(remapper.mapMemberReference(value));
+				} else original.name(reference).value(remapper.mapMemberReference(value));
+			}
+			reader.endObject();
+			original.endObject();
+			if(remapped != null) remapped.endObject();
+		}
+		reader.endObject();
+		original.endObject();
+		if(remapped != null) remapped.endObject();
+	}
+	private static void copy(JsonReader reader, JsonWriter writer) throws IOException {
+		JsonToken token = reader.peek();
+		switch(token) {
+			case BEGIN_OBJECT:
+				reader.beginObject();
+				writer.beginObject();
+				while(reader.hasNext()) {
+					writer.name(reader.nextName());
+					copy(reader, writer);
+				}
+				reader.endObject();
+				writer.endObject();
+				break;
+			case BEGIN_ARRAY:
+				reader.beginArray();
+				writer.beginArray();
+				while(reader.hasNext()) copy(reader, writer);
+				reader.endArray();
+				writer.endArray();
+				break;
+			case STRING:
+				writer.value(reader.nextString());
+				break;
+			case NUMBER:
+				writer.jsonValue(reader.nextString());
+				break;
+			case BOOLEAN:
+				writer.value(reader.nextBoolean());
+				break;
+			case NULL:
+				reader.nextNull();
+				writer.nullValue();
+				break;
+			default:
+				throw new IllegalStateException("Unexpected " + token + " in refmap");
+		}
+	}
+}
\ No newline at end of file
@@ -17,21 +17,31 @@
 
 package io.github.fcworkgroupmc.f2c.f2c.transformationservices;
 
+import com.google.common.cache.CacheStats;
 import cpw.mods.modlauncher.LaunchPluginHandler;
 import cpw.mods.modlauncher.Launcher;
 import cpw.mods.modlauncher.api.*;
 import cpw.mods.modlauncher.serviceapi.ILaunchPluginService;
 import io.github.fcworkgroupmc.f2c.f2c.FabricObfProcessor;
 import io.github.fcworkgroupmc.f2c.f2c.Metadata;
+import io.github.fcworkgroupmc.f2c.f2c.cache.ProcessedJarCache;
+import io.github.fcworkgroupmc.f2c.f2c.cache.RemoteCache;
 import io.github.fcworkgroupmc.f2c.f2c.fabric.FabricLoader;
+import io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.F2CLaunchPlugin;
+import io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.LazyRemapLaunchPlugin;
 import io.github.fcworkgroupmc.f2c.f2c.namemappingservices.IntermediaryToSrgNameMappingService;
 import io.github.fcworkgroupmc.f2c.f2c.transformers.EntryPointBrandingTransformer;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ClassIndex;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader;
 import io.github.lxgaming.classloader.ClassLoaderUtils;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.launch.common.FabricLauncherBase;
 import net.fabricmc.loader.launch.knot.Knot;
+import net.fabricmc.loader.metadata.LoaderModMetadata;
+import net.fabricmc.loader.metadata.ModMetadataParser;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.fml.loading.FMLCommonLaunchHandler;
+import net.minecraftforge.fml.loading.FMLEnvironment;
 import net.minecraftforge.fml.loading.FMLLoader;
 import net.minecraftforge.fml.loading.FMLPaths;
 import net.minecraftforge.fml.loading.ModDirTransformerDiscoverer;
@@ -44,6 +54,7 @@ import org.spongepowered.asm.launch.platform.MixinPlatformManager;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -54,9 +65,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.jar.JarFile;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
 
 import static io.github.fcworkgroupmc.f2c.f2c.Metadata.*;
 
@@ -68,6 +82,8 @@ public class FabricModTransformationService implements ITransformationService {
 
 	private Knot knot;
 	public final List<Path> fabricMods = new ArrayList<>();
+	/** Fabric mods which do not load in the current environment, renamed like the others but never processed */
+	private final List<Path> skippedFabricMods = new ArrayList<>();
 
 	private final Map<String, ILaunchPluginService> launchPluginServices;
 	private final Map namingTable;
@@ -100,9 +116,15 @@ public class FabricModTransformationService implements ITransformationService {
 					String pathString = path.toAbsolutePath().normalize().toString();
 					return (pathString.endsWith(JAR_SUFFIX) || pathString.endsWith(FABRIC_MOD_SUFFIX)) && !pathString.contains("f2c-");
 				}).forEach(modPath -> {
-					ZipEntry entry = null;
-					try(JarFile jarFile = new JarFile(modPath.toFile())) {
-						entry = jarFile.getEntry(FABRIC_MOD_DEF);
+					ZipReader.Entry entry = null;
+					boolean loadsInEnvironment = true;
+					try(ZipReader jar = ZipReader.open(modPath)) { // closing it unmaps the jar, which could not be renamed on Windows while mapped
+						entry = jar.getEntry(FABRIC_MOD_DEF);
+						if(entry != null) {
+							try(InputStream in = jar.getInputStream(entry)) {
+								loadsInEnvironment = loadsInEnvironment(in, knot.getEnvironmentType(), modPath);
+							}
+						}
 					} catch (IOException e) {
 						LOGGER.catching(Level.ERROR, e);
 					}
@@ -113,17 +135,31 @@ public class FabricModTransformationService implements ITransformationService {
 						} catch (IOException e) {
 							LOGGER.catching(Level.FATAL, e);
 						}
-						fabricMods.add(target);
-						LOGGER.debug("Added mod: {}", target);
+						if(loadsInEnvironment) {
+							fabricMods.add(target);
+							LOGGER.debug("Added mod: {}", target);
+						} else {
+							skippedFabricMods.add(target);
+							LOGGER.debug("Skipped mod: {}", target);
+						}
 					}
 				});
-				Runtime.getRuntime().addShutdownHook(new Thread(() -> fabricMods.forEach(p -> {
-					try {
-						Files.move(p, p.getParent().resolve(p.getFileName().toString().replace(FABRIC_MOD_SUFFIX, JAR_SUFFIX)));
-					} catch (IOException e) {
-						LOGGER.catching(Level.WARN, e);
-					}
-				})));
+				if(!skippedFabricMods.isEmpty()) {
+					LOGGER.info("Skipped {} Fabric mod(s) which do not load in environment type {}: {}", skippedFabricMods.size(), knot.getEnvironmentType(),
+							skippedFabricMods.stream().map(p -> p.getFileName().toString()).collect(Collectors.joining(", ")));
+					StartupMessageManager.addModMessage("F2C-Skipped " + skippedFabricMods.size() + " Fabric mod(s) not loading in environment type " + knot.getEnvironmentType());
+				}
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					List<Path> renamed = new ArrayList<>(fabricMods);
+					renamed.addAll(skippedFabricMods);
+					renamed.forEach(p -> {
+						try {
+							Files.move(p, p.getParent().resolve(p.getFileName().toString().replace(FABRIC_MOD_SUFFIX, JAR_SUFFIX)));
+						} catch (IOException e) {
+							LOGGER.catching(Level.WARN, e);
+						}
+					});
+				}));
 			} else LOGGER.warn("mods directory not present!");
 		} catch (Exception e) {
 			LOGGER.error("error occurred when initializing f2c service " + e);
@@ -133,6 +169,20 @@ public class FabricModTransformationService implements ITransformationService {
 		knot.init();
 	}
 
+	/**
+	 * @return whether the mod loads in the environment type according to its {@code environment} (or {@code side} for schema 0),
+	 * {@code true} if its metadata cannot be read so that the loader reports it
+	 */
+	public static boolean loadsInEnvironment(InputStream modDef, EnvType envType, Path modPath) {
+		try {
+			for(LoaderModMetadata metadata : ModMetadataParser.getMods(FabricLoader.INSTANCE, modDef))
+				if(!metadata.loadsInEnvironment(envType)) return false;
+		} catch (RuntimeException e) {
+			LOGGER.debug("Cannot read the metadata of {}, processing it anyway", modPath.getFileName(), e);
+		}
+		return true;
+	}
+
 	@Override
 	public void beginScanning(IEnvironment environment) {
 		if(isDevelopment()) {
@@ -153,7 +203,7 @@ public class FabricModTransformationService implements ITransformationService {
 		beginScanning(environment);
 		if(!fabricMods.isEmpty()) {
 			List<Path> processedMods = new ArrayList<>();
-			Path processedDir = environment.getProperty(IEnvironment.Keys.GAMEDIR.get()).orElse(FMLPaths.GAMEDIR.get()).resolve(F2C_DIR).resolve("processed");
+			Path processedDir = getCacheDir(environment).resolve("processed");
 			try {
 				if(Files.exists(processedDir) && !Files.isDirectory(processedDir))
 					Files.delete(processedDir);
@@ -162,11 +212,16 @@ public class FabricModTransformationService implements ITransformationService {
 			} catch (IOException e) { e.printStackTrace(); }
 			while(!Metadata.funcReady); // wait for the remap function ready
 			StartupMessageManager.addModMessage("Processing Fabric mod obf");
-			fabricMods.forEach(path -> {
-				Path processedJar = processedDir.resolve(path.getFileName());
-				FabricObfProcessor.processJar(path, processedJar);
-				processedMods.add(processedJar);
-			});
+			ProcessedJarCache cache = new ProcessedJarCache(processedDir, IntermediaryToSrgNameMappingService.getMappingsHash(), FMLEnvironment.naming,
+					FabricLauncherBase.getLauncher().getEnvironmentType().toString(), RemoteCache.fromUrl(REMOTE_CACHE, REMOTE_CACHE_AUTHORIZATION));
+			processedMods.addAll(processMods(cache));
+			cache.prune();
+			if(FabricObfProcessor.LAZY) processedMods.forEach(LazyRemapLaunchPlugin::addClasses);
+			else processedMods.forEach(F2CLaunchPlugin::addStrippedClasses);
+			processedMods.forEach(ClassIndex::register); // read by Knot.getClassByteArray
+			CacheStats stats = FabricObfProcessor.REMAPPER.getDescriptorCacheStats();
+			LOGGER.debug("Descriptor cache: {} hits, {} misses, hit rate {}, {} evictions",
+					stats.hitCount(), stats.missCount(), String.format("%.1f%%", stats.hitRate() * 100), stats.evictionCount());
 			if(isNotDev()) {
 				try {
 					processedMods.add(Paths.get(location.toURI()));
@@ -190,6 +245,66 @@ public class FabricModTransformationService implements ITransformationService {
 		return Collections.emptyList();
 	}
 
+	/**
+	 * Processes the Fabric mods on {@link Metadata#PROCESS_THREADS} threads, largest jar first.
+	 * A mod that fails to process is reported and left out, the others are returned in their original order.
+	 */
+	private List<Path> processMods(ProcessedJarCache cache) {
+		long start = System.nanoTime();
+		AtomicInteger threadId = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(PROCESS_THREADS, fabricMods.size()), r -> {
+			Thread thread = new Thread(r, "F2C-Processor-" + threadId.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			Map<Path, Long> sizes = new HashMap<>();
+			for(Path mod : fabricMods) {
+				try {
+					sizes.put(mod, Files.size(mod));
+				} catch (IOException e) {
+					sizes.put(mod, 0L);
+				}
+			}
+			AtomicInteger done = new AtomicInteger();
+			Map<Path, Future<Path>> tasks = new HashMap<>();
+			fabricMods.stream().sorted(Comparator.comparing(sizes::get).reversed()).forEach(mod -> tasks.put(mod, executor.submit(() -> {
+				Path processed = cache.process(mod);
+				StartupMessageManager.addModMessage("Processed Fabric mod obf " + done.incrementAndGet() + "/" + fabricMods.size());
+				return processed;
+			})));
+			List<Path> processedMods = new ArrayList<>();
+			List<Path> failedMods = new ArrayList<>();
+			for(Path mod : fabricMods) {
+				try {
+					processedMods.add(tasks.get(mod).get());
+				} catch (ExecutionException e) {
+					LOGGER.error("Error processing Fabric mod {}", mod.getFileName(), e.getCause());
+					StartupMessageManager.addModMessage("F2C-Failed to process " + mod.getFileName());
+					failedMods.add(mod);
+				}
+			}
+			if(!failedMods.isEmpty())
+				LOGGER.error("{} Fabric mod(s) failed to process and will not be loaded: {}", failedMods.size(),
+						failedMods.stream().map(p -> p.getFileName().toString()).collect(Collectors.joining(", ")));
+			long outputSize = 0;
+			for(Path processed : processedMods) {
+				try {
+					outputSize += Files.size(processed);
+				} catch (IOException ignored) {}
+			}
+			LOGGER.info("Processed {} Fabric mod(s) in {} ms, {} KiB in, {} KiB out ({})", processedMods.size(),
+					(System.nanoTime() - start) / 1000000, sizes.values().stream().mapToLong(Long::longValue).sum() >> 10,
+					outputSize >> 10, PROCESSED_FORMAT);
+			return processedMods;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while processing Fabric mods", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	@Override
 	public void onLoad(IEnvironment env, Set<String> otherServices) throws IncompatibleEnvironmentException {
 		location = getClass().getProtectionDomain().getCodeSource().getLocation();
@@ -206,6 +321,7 @@ public class FabricModTransformationService implements ITransformationService {
 
 				registerLaunchPluginService("io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.AccessWidenerLaunchPlugin");
 				registerLaunchPluginService("io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.F2CLaunchPlugin");
+				registerLaunchPluginService("io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.LazyRemapLaunchPlugin");
 			} catch (Throwable throwable) {
 				throwable.printStackTrace();
 			}
@@ -28,12 +28,27 @@ import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 public class NetworkUtil {
 	private static final Logger LOGGER = LogManager.getLogger();
+	private static final AtomicInteger downloadThreadId = new AtomicInteger();
+	private static final ExecutorService DOWNLOADS = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "F2C-Download-" + downloadThreadId.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
 	public static class Net {
 		public enum Method {
 			GET,
@@ -47,12 +62,15 @@ public class NetworkUtil {
 		public static class Connection implements Closeable {
 			private InputStream stream;
 			private final HttpURLConnection connection;
-			private Connection(HttpURLConnection connection) {
+			private IOException failure;
+			private Connection(HttpURLConnection connection, IOException failure) {
 				this.connection = connection;
+				this.failure = failure;
 				try {
 					this.connection.connect();
 				} catch (IOException e) {
-					LOGGER.error("Error when connecting to the Internet", e);
+					LOGGER.debug("Error when connecting to the Internet", e); // reported by the callers, which get -1 as the response code
+					if(this.failure == null) this.failure = e;
 				}
 				try {
 					this.stream = this.connection.getInputStream();
@@ -63,6 +81,29 @@ public class NetworkUtil {
 			public InputStream asStream() {
 				return stream;
 			}
+			/**
+			 * @return the HTTP status code, or -1 if there is no valid response
+			 */
+			public int getResponseCode() {
+				try {
+					return connection.getResponseCode();
+				} catch (IOException e) {
+					if(failure == null) failure = e;
+					return -1;
+				}
+			}
+			/**
+			 * @return the error which prevented the request from being sent or answered, or {@code null} if there was none
+			 */
+			public IOException getFailure() {
+				return failure;
+			}
+			/**
+			 * @return the value of a response header, or {@code null} if it is not set
+			 */
+			public String getHeader(String name) {
+				return connection.getHeaderField(name);
+			}
 			public byte[] asByteArray() {
 				try {
 					return IOUtils.toByteArray(stream);
@@ -87,31 +128,32 @@ public class NetworkUtil {
 			}
 			@Override
 			public void close() throws IOException {
-				this.stream.close();
+				if(this.stream != null) this.stream.close();
 				this.connection.disconnect();
 			}
 		}
 		private HttpURLConnection connection;
+		private IOException failure;
 		private Net(URL url, Proxy proxy, Method method, Duration timeout, Map<String, List<String>> headers, byte[] reqData) {
 			try {
 				connection = (HttpURLConnection) url.openConnection(proxy == null ? Proxy.NO_PROXY : proxy);
 				connection.setRequestMethod(method.name());
 				connection.setReadTimeout((int) timeout.toMillis());
 				connection.setConnectTimeout((int) timeout.toMillis());
-				if(headers != null && !headers.isEmpty()) {
-					Map<String, List<String>> requestProperties = connection.getRequestProperties();
-					headers.forEach((key, value) -> requestProperties.merge(key, value, (ov, nv) -> {ov.addAll(nv); return ov;}));
-				}
+				if(headers != null && !headers.isEmpty()) // getRequestProperties() is read-only
+					headers.forEach((key, values) -> values.forEach(value -> connection.addRequestProperty(key, value)));
 				if(reqData != null) {
 					connection.setDoOutput(true);
+					connection.setFixedLengthStreamingMode(reqData.length);
 					connection.getOutputStream().write(reqData);
 				}
 			} catch (IOException e) {
-				LOGGER.error("Error when opening connection", e);
+				LOGGER.debug("Error when opening connection", e); // reported by the connection
+				failure = e;
 			}
 		}
 		public Connection connect() {
-			return new Connection(connection);
+			return new Connection(connection, failure);
 		}
 		public CompletableFuture<Connection> connectAsync() {
 			return CompletableFuture.supplyAsync(this::connect);
@@ -179,6 +221,197 @@ public class NetworkUtil {
 			}
 		}
 	}
+	/**
+	 * Downloads a URL to a file.
+	 * <p>
+	 * The file is replaced atomically once the download is complete and matches its checksum. Its ETag and Last-Modified
+	 * are kept in {@code <file>.http} and sent back with If-None-Match and If-Modified-Since, so an unchanged file is not
+	 * downloaded again. The data is received in {@code <file>.part}, and an interrupted download is resumed with a Range
+	 * request as long as the server has the same version of the file. The data is requested gzip encoded, and is kept
+	 * encoded in the part file so a resumed download continues the same bytes.
+	 */
+	public static class Download {
+		public enum Result {
+			DOWNLOADED,
+			NOT_MODIFIED,
+			NOT_FOUND
+		}
+		private static final String URL = "url";
+		private static final String ETAG = "etag";
+		private static final String LAST_MODIFIED = "lastModified";
+		private static final String ENCODING = "encoding";
+		private static final String SIZE = "size";
+		private static final String MODIFIED_TIME = "modifiedTime";
+
+		private final String url;
+		private final Path target;
+		private final Path part;
+		private final Path validatorsFile;
+		private final Path partValidatorsFile;
+		private Duration timeout = Duration.ofSeconds(10);
+		private String sha256;
+		private Download(String url, Path target) {
+			this.url = url;
+			this.target = target;
+			this.part = target.resolveSibling(target.getFileName() + ".part");
+			this.validatorsFile = target.resolveSibling(target.getFileName() + ".http");
+			this.partValidatorsFile = target.resolveSibling(target.getFileName() + ".part.http");
+		}
+		public Download timeout(Duration timeout) {
+			this.timeout = Objects.requireNonNull(timeout, "timeout cannot be null");
+			return this;
+		}
+		/**
+		 * @param sha256 the expected SHA-256 of the file, or {@code null} to accept any content
+		 */
+		public Download sha256(String sha256) {
+			this.sha256 = sha256;
+			return this;
+		}
+		/**
+		 * Runs the download on a thread of the download executor, so several files are downloaded at the same time.
+		 */
+		public CompletableFuture<Result> start() {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return run();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, DOWNLOADS);
+		}
+		public Result run() throws IOException {
+			Properties current = readValidators(validatorsFile);
+			if(!current.isEmpty() && !isCurrent(current)) current.clear();
+			Properties partial = readValidators(partValidatorsFile);
+			String ifRange = partial.getProperty(ETAG, partial.getProperty(LAST_MODIFIED));
+			long partSize = ifRange != null && url.equals(partial.getProperty(URL)) && Files.isRegularFile(part) ? Files.size(part) : 0L;
+			Net.NetBuilder builder = newBuilder(url).timeout(timeout);
+			if(current.containsKey(ETAG)) builder.setHeader("If-None-Match", current.getProperty(ETAG));
+			if(current.containsKey(LAST_MODIFIED)) builder.setHeader("If-Modified-Since", current.getProperty(LAST_MODIFIED));
+			if(partSize > 0L) {
+				builder.setHeader("Range", "bytes=" + partSize + "-").setHeader("If-Range", ifRange);
+				builder.setHeader("Accept-Encoding", partial.getProperty(ENCODING));
+			} else builder.setHeader("Accept-Encoding", "gzip");
+			try(Net.Connection connection = builder.connect()) {
+				int code = connection.getResponseCode();
+				long expectedSize;
+				switch(code) {
+					case 304:
+						if(current.isEmpty()) throw new IOException("GET " + url + " returned 304 to an unconditional request");
+						LOGGER.debug("{} is up to date", target.getFileName());
+						Files.deleteIfExists(part);
+						Files.deleteIfExists(partValidatorsFile);
+						return Result.NOT_MODIFIED;
+					case 404:
+						return Result.NOT_FOUND;
+					case 200:
+						partial = new Properties();
+						partial.setProperty(URL, url);
+						setIfPresent(partial, ETAG, connection.getHeader("ETag"));
+						setIfPresent(partial, LAST_MODIFIED, connection.getHeader("Last-Modified"));
+						String encoding = connection.getHeader("Content-Encoding");
+						partial.setProperty(ENCODING, encoding == null ? "identity" : encoding.toLowerCase(Locale.ROOT));
+						if(partial.getProperty(ETAG, "").startsWith("W/")) partial.remove(ETAG); // If-Range needs a strong validator
+						writeValidators(partValidatorsFile, partial);
+						partSize = 0L;
+						expectedSize = parseLong(connection.getHeader("Content-Length"), -1L);
+						break;
+					case 206:
+						String range = connection.getHeader("Content-Range");
+						if(range == null || !range.startsWith("bytes " + partSize + "-")) {
+							Files.deleteIfExists(partValidatorsFile);
+							throw new IOException("GET " + url + " returned the range " + range + " instead of " + partSize + "-");
+						}
+						LOGGER.debug("Resuming the download of {} at {} bytes", target.getFileName(), partSize);
+						expectedSize = parseLong(range.substring(range.lastIndexOf('/') + 1), -1L);
+						break;
+					default:
+						throw new IOException("GET " + url + " returned " + code, connection.getFailure());
+				}
+				if(connection.asStream() == null) throw new IOException("GET " + url + " returned no data");
+				try(OutputStream out = Files.newOutputStream(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						partSize > 0L ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+					IOUtils.copy(connection.asStream(), out);
+				}
+				if(expectedSize >= 0L && Files.size(part) != expectedSize)
+					throw new IOException("Download of " + url + " stopped at " + Files.size(part) + " of " + expectedSize + " bytes");
+			}
+			complete(partial);
+			return Result.DOWNLOADED;
+		}
+		private void complete(Properties validators) throws IOException {
+			Path data = part;
+			if("gzip".equals(validators.getProperty(ENCODING))) {
+				data = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+				try(InputStream in = new GZIPInputStream(Files.newInputStream(part))) {
+					Files.copy(in, data, StandardCopyOption.REPLACE_EXISTING);
+				} catch (IOException e) {
+					Files.delete(data);
+					discardPart();
+					throw e;
+				}
+			}
+			try {
+				if(sha256 != null && !sha256.equalsIgnoreCase(HashUtil.sha256(data))) {
+					discardPart();
+					throw new IOException(url + " does not match its checksum");
+				}
+				Files.move(data, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				if(data != part) Files.deleteIfExists(data);
+			}
+			validators.remove(ENCODING);
+			validators.setProperty(SIZE, String.valueOf(Files.size(target)));
+			validators.setProperty(MODIFIED_TIME, String.valueOf(Files.getLastModifiedTime(target).toMillis()));
+			writeValidators(validatorsFile, validators);
+			discardPart();
+		}
+		/**
+		 * @return whether the validators were received for the target as it is, so they can be sent back to revalidate it
+		 */
+		private boolean isCurrent(Properties validators) throws IOException {
+			if(!url.equals(validators.getProperty(URL)) || !Files.isRegularFile(target)) return false;
+			if(Files.size(target) != parseLong(validators.getProperty(SIZE), -1L)
+					|| Files.getLastModifiedTime(target).toMillis() != parseLong(validators.getProperty(MODIFIED_TIME), -1L)) return false;
+			return sha256 == null || sha256.equalsIgnoreCase(HashUtil.sha256(target));
+		}
+		private void discardPart() throws IOException {
+			Files.deleteIfExists(part);
+			Files.deleteIfExists(partValidatorsFile);
+		}
+		private static Properties readValidators(Path file) throws IOException {
+			Properties validators = new Properties();
+			if(Files.isRegularFile(file)) try(InputStream in = Files.newInputStream(file)) {
+				validators.load(in);
+			}
+			return validators;
+		}
+		private static void writeValidators(Path file, Properties validators) throws IOException {
+			try(OutputStream out = Files.newOutputStream(file)) {
+				validators.store(out, null);
+			}
+		}
+		private static void setIfPresent(Properties properties, String key, String value) {
+			if(value != null) properties.setProperty(key, value);
+		}
+		private static long parseLong(String value, long defaultValue) {
+			try {
+				return value == null ? defaultValue : Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+	}
+	public static Download download(String url, Path target) {
+		return new Download(url, target);
+	}
+	/**
+	 * @return the executor running the downloads, on daemon threads
+	 */
+	public static Executor downloadExecutor() {
+		return DOWNLOADS;
+	}
 	public static Net.NetBuilder newBuilder(String url) {
 		try {
 			return new Net.NetBuilder(new URL(url));
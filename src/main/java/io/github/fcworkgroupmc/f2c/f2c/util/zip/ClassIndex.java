@@ -0,0 +1,294 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.util.zip;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Index of the classes of a processed jar, written next to it as {@code <jar>.idx}, from which a class is read straight
+ * out of the memory-mapped jar without a zip file system or a central directory lookup.
+ * <p>
+ * The index is memory-mapped as well. It is made of a header, the class records sorted by name for a binary search,
+ * the package records and the names. A class record gives the offset of the entry data in the jar, its compression method and sizes.
+ * An index is ignored if the size of the jar is not the one it was written for.
+ */
+public class ClassIndex implements Closeable {
+	private static final Logger LOGGER = LogManager.getLogger();
+	private static final int MAGIC = 0x46324349; // F2CI
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int CLASS_RECORD_SIZE = 24;
+	private static final int PACKAGE_RECORD_SIZE = 8;
+	private static final String SUFFIX = ".idx";
+
+	private final String jarName;
+	private final ByteBuffer index;
+	private final ByteBuffer jar;
+	private final int classCount;
+	private final int packageCount;
+	private ClassIndex(String jarName, ByteBuffer index, ByteBuffer jar) {
+		this.jarName = jarName;
+		this.index = index;
+		this.jar = jar;
+		this.classCount = index.getInt(16);
+		this.packageCount = index.getInt(20);
+	}
+
+	/**
+	 * @return the path of the index of the given jar
+	 */
+	public static Path pathOf(Path jar) {
+		return jar.resolveSibling(jar.getFileName() + SUFFIX);
+	}
+
+	/**
+	 * Writes the index of a jar, replacing an existing one atomically.
+	 */
+	public static void write(Path jar) throws IOException {
+		TreeMap<byte[], ZipReader.Entry> classes = new TreeMap<>(ClassIndex::compare);
+		TreeMap<byte[], Boolean> packages = new TreeMap<>(ClassIndex::compare);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int[] dataOffsets;
+		long jarSize = Files.size(jar);
+		try(ZipReader reader = ZipReader.open(jar)) {
+			for(ZipReader.Entry entry : reader.entries()) {
+				String name = entry.getName();
+				if(entry.isDirectory() || !name.endsWith(".class") || name.startsWith("META-INF/")) continue;
+				if(entry.getMethod() != ZipEntry.STORED && entry.getMethod() != ZipEntry.DEFLATED) continue;
+				String className = name.substring(0, name.length() - 6);
+				classes.putIfAbsent(className.getBytes(StandardCharsets.UTF_8), entry);
+				int slash = className.lastIndexOf('/');
+				packages.put((slash < 0 ? "" : className.substring(0, slash)).getBytes(StandardCharsets.UTF_8), Boolean.TRUE);
+			}
+			dataOffsets = new int[classes.size()];
+			int i = 0;
+			for(ZipReader.Entry entry : classes.values()) dataOffsets[i++] = reader.getDataOffset(entry);
+		}
+		int namesStart = HEADER_SIZE + classes.size() * CLASS_RECORD_SIZE + packages.size() * PACKAGE_RECORD_SIZE;
+		try(DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(jarSize);
+			out.writeInt(classes.size());
+			out.writeInt(packages.size());
+			int nameOffset = namesStart, i = 0;
+			for(Map.Entry<byte[], ZipReader.Entry> e : classes.entrySet()) {
+				ZipReader.Entry entry = e.getValue();
+				out.writeInt(nameOffset);
+				out.writeInt(e.getKey().length);
+				out.writeInt(entry.getMethod());
+				out.writeInt(dataOffsets[i++]);
+				out.writeInt((int) entry.getCompressedSize());
+				out.writeInt((int) entry.getSize());
+				nameOffset += e.getKey().length;
+			}
+			for(byte[] name : packages.keySet()) {
+				out.writeInt(nameOffset);
+				out.writeInt(name.length);
+				nameOffset += name.length;
+			}
+			for(byte[] name : classes.keySet()) out.write(name);
+			for(byte[] name : packages.keySet()) out.write(name);
+		}
+		Path index = pathOf(jar);
+		Path temp = index.resolveSibling(UUID.randomUUID().toString().replace("-", "") + SUFFIX + ".tmp");
+		try {
+			Files.write(temp, bytes.toByteArray());
+			try {
+				Files.move(temp, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Maps the index of a jar and the jar itself.
+	 * @return the index, or {@code null} if the jar has no index or an index for another jar
+	 */
+	public static ClassIndex open(Path jar) throws IOException {
+		Path indexPath = pathOf(jar);
+		if(Files.notExists(indexPath)) return null;
+		ByteBuffer index = map(indexPath);
+		if(index.limit() < HEADER_SIZE || index.getInt(0) != MAGIC || index.getInt(4) != VERSION || index.getLong(8) != Files.size(jar)) {
+			ZipReader.unmap(index);
+			return null;
+		}
+		return new ClassIndex(jar.getFileName().toString(), index, map(jar));
+	}
+	private static ByteBuffer map(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * @return the internal names of the packages of the indexed classes
+	 */
+	public List<String> getPackages() {
+		List<String> list = new ArrayList<>(packageCount);
+		int base = HEADER_SIZE + classCount * CLASS_RECORD_SIZE;
+		for(int i = 0; i < packageCount; i++) {
+			int record = base + i * PACKAGE_RECORD_SIZE;
+			list.add(string(index.getInt(record), index.getInt(record + 4)));
+		}
+		return list;
+	}
+	/**
+	 * @param internalName the internal name of a class
+	 * @return the bytes of the class, or {@code null} if it is not in the jar
+	 */
+	public byte[] readClass(String internalName) throws IOException {
+		byte[] name = internalName.getBytes(StandardCharsets.UTF_8);
+		int low = 0, high = classCount - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int record = HEADER_SIZE + mid * CLASS_RECORD_SIZE;
+			int cmp = compare(index.getInt(record), index.getInt(record + 4), name);
+			if(cmp < 0) low = mid + 1;
+			else if(cmp > 0) high = mid - 1;
+			else return read(internalName, index.getInt(record + 8), index.getInt(record + 12), index.getInt(record + 16), index.getInt(record + 20));
+		}
+		return null;
+	}
+	private byte[] read(String name, int method, int offset, int compressedSize, int size) throws IOException {
+		if(offset < 0 || offset + compressedSize > jar.limit()) throw new ZipException("truncated entry " + name + " in " + jarName);
+		byte[] data = new byte[compressedSize];
+		ByteBuffer dup = jar.duplicate();
+		dup.position(offset);
+		dup.get(data);
+		if(method == ZipEntry.STORED) return data;
+		byte[] bytes = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data);
+			int n = 0;
+			boolean padded = false;
+			while(n < size) {
+				int inflated = inflater.inflate(bytes, n, size - n);
+				n += inflated;
+				if(inflated == 0) {
+					if(inflater.finished() || inflater.needsDictionary() || padded) break;
+					if(inflater.needsInput()) { // the nowrap inflater may need an extra dummy byte
+						inflater.setInput(new byte[1]);
+						padded = true;
+					}
+				}
+			}
+			if(n != size) throw new ZipException("invalid entry size for " + name + " in " + jarName);
+		} catch (DataFormatException e) {
+			throw new ZipException("invalid compressed data for " + name + " in " + jarName + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return bytes;
+	}
+	private int compare(int offset, int length, byte[] name) {
+		int common = Math.min(length, name.length);
+		for(int i = 0; i < common; i++) {
+			int cmp = (index.get(offset + i) & 0xFF) - (name[i] & 0xFF);
+			if(cmp != 0) return cmp;
+		}
+		return length - name.length;
+	}
+	private static int compare(byte[] a, byte[] b) {
+		int common = Math.min(a.length, b.length);
+		for(int i = 0; i < common; i++) {
+			int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if(cmp != 0) return cmp;
+		}
+		return a.length - b.length;
+	}
+	private String string(int offset, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer dup = index.duplicate();
+		dup.position(offset);
+		dup.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() {
+		ZipReader.unmap(index);
+		ZipReader.unmap(jar);
+	}
+
+	/** the registered indexes by package, in registration order */
+	private static final Map<String, List<ClassIndex>> registered = new ConcurrentHashMap<>();
+	/**
+	 * Registers the index of a processed jar, for {@link #readRegisteredClass(String)}.
+	 * A jar without a valid index is left to the class loader.
+	 */
+	public static void register(Path jar) {
+		try {
+			ClassIndex index = open(jar);
+			if(index == null) {
+				LOGGER.debug("No class index for {}", jar.getFileName());
+				return;
+			}
+			for(String pkg : index.getPackages()) registered.computeIfAbsent(pkg, k -> new CopyOnWriteArrayList<>()).add(index);
+		} catch (IOException e) {
+			LOGGER.debug("Cannot open the class index of {}", jar.getFileName(), e);
+		}
+	}
+	/**
+	 * @param internalName the internal name of a class
+	 * @return the bytes of the class from the first registered jar containing it, or {@code null} if none does
+	 */
+	public static byte[] readRegisteredClass(String internalName) {
+		int slash = internalName.lastIndexOf('/');
+		List<ClassIndex> indexes = registered.get(slash < 0 ? "" : internalName.substring(0, slash));
+		if(indexes == null) return null;
+		for(ClassIndex index : indexes) {
+			try {
+				byte[] bytes = index.readClass(internalName);
+				if(bytes != null) return bytes;
+			} catch (IOException e) {
+				LOGGER.debug("Cannot read {} from the class index of {}", internalName, index.jarName, e);
+			}
+		}
+		return null;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,358 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.util.zip;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a zip archive from a {@link ByteBuffer}, either a memory-mapped file or an in-memory array.
+ * <p>
+ * Unlike {@link java.util.zip.ZipFile}, the compressed data of an entry can be read as-is with {@link #getRawData(Entry)}.
+ * Reads never change the state of the backing buffer, so a reader can be used by several threads at once.
+ */
+public class ZipReader implements Closeable {
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_SIGNATURE = 0x06054b50;
+	static final int LOCAL_HEADER_SIZE = 30;
+	static final int CENTRAL_HEADER_SIZE = 46;
+	static final int END_SIZE = 22;
+
+	private final ByteBuffer buffer;
+	/** the mapping of the file, which the buffer is a duplicate of, or {@code null} if the reader does not map a file */
+	private final MappedByteBuffer mapping;
+	private volatile boolean closed;
+	private final List<Entry> entries;
+	private final Map<String, Entry> entryMap;
+	public ZipReader(ByteBuffer buffer) throws IOException {
+		this(buffer, null);
+	}
+	private ZipReader(ByteBuffer buffer, MappedByteBuffer mapping) throws IOException {
+		this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.mapping = mapping;
+		this.entries = Collections.unmodifiableList(readCentralDirectory());
+		this.entryMap = new HashMap<>(entries.size() * 2);
+		for(Entry entry : entries) entryMap.putIfAbsent(entry.name, entry);
+	}
+	public ZipReader(byte[] bytes) throws IOException {
+		this(ByteBuffer.wrap(bytes));
+	}
+	/**
+	 * Opens a zip file, memory-mapped if it is on the default file system and read in memory otherwise,
+	 * as file systems like jimfs cannot map files.
+	 */
+	public static ZipReader open(Path file) throws IOException {
+		if(file.getFileSystem() != FileSystems.getDefault()) return new ZipReader(Files.readAllBytes(file));
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			try {
+				return new ZipReader(mapping, mapping);
+			} catch (IOException | RuntimeException e) {
+				unmap(mapping);
+				throw e;
+			}
+		}
+	}
+
+	private List<Entry> readCentralDirectory() throws IOException {
+		int end = findEnd();
+		if(end < 0) throw new ZipException("zip END header not found");
+		int count = u16(end + 10);
+		long size = u32(end + 12);
+		long offset = u32(end + 16);
+		if(count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL)
+			throw new ZipException("ZIP64 archives are not supported");
+		// Tolerate data prepended to the archive, like ZipFile does
+		int base = (int) (end - size - offset);
+		if(base < 0) throw new ZipException("invalid END header (bad central directory offset)");
+		List<Entry> list = new ArrayList<>(count);
+		int pos = (int) (base + offset);
+		for(int i = 0; i < count; i++) {
+			if(pos + CENTRAL_HEADER_SIZE > end || buffer.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+				throw new ZipException("invalid CEN header (bad signature)");
+			int nameLength = u16(pos + 28);
+			int extraLength = u16(pos + 30);
+			int commentLength = u16(pos + 32);
+			Entry entry = new Entry(string(pos + CENTRAL_HEADER_SIZE, nameLength), u16(pos + 8), u16(pos + 10),
+					buffer.getInt(pos + 12), u32(pos + 16), u32(pos + 20), u32(pos + 24), base + u32(pos + 42));
+			if((entry.flags & 1) != 0) throw new ZipException("encrypted entry " + entry.name + " is not supported");
+			if(entry.compressedSize == 0xFFFFFFFFL || entry.size == 0xFFFFFFFFL || entry.localHeaderOffset - base == 0xFFFFFFFFL)
+				throw new ZipException("ZIP64 entry " + entry.name + " is not supported");
+			list.add(entry);
+			pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+		return list;
+	}
+	private int findEnd() {
+		int limit = Math.max(0, buffer.limit() - END_SIZE - 0xFFFF);
+		for(int pos = buffer.limit() - END_SIZE; pos >= limit; pos--)
+			if(buffer.getInt(pos) == END_SIGNATURE && pos + END_SIZE + u16(pos + 20) == buffer.limit()) return pos;
+		for(int pos = buffer.limit() - END_SIZE; pos >= limit; pos--) // comment length mismatch, accept the last signature
+			if(buffer.getInt(pos) == END_SIGNATURE) return pos;
+		return -1;
+	}
+	private int u16(int pos) {
+		return buffer.getShort(pos) & 0xFFFF;
+	}
+	private long u32(int pos) {
+		return buffer.getInt(pos) & 0xFFFFFFFFL;
+	}
+	private String string(int pos, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(pos);
+		dup.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the entries, in central directory order
+	 */
+	public List<Entry> entries() {
+		return entries;
+	}
+	public Entry getEntry(String name) {
+		return entryMap.get(name);
+	}
+	public int size() {
+		return entries.size();
+	}
+	/**
+	 * @return the data of the entry exactly as stored in the archive, without inflating it.
+	 * It must not be used after the reader is closed, nor must the streams of {@link #getInputStream(Entry)}.
+	 */
+	public ByteBuffer getRawData(Entry entry) throws IOException {
+		int dataStart = getDataOffset(entry);
+		ByteBuffer data = buffer.duplicate();
+		data.position(dataStart);
+		data.limit((int) (dataStart + entry.compressedSize));
+		return data.slice();
+	}
+	/**
+	 * @return the offset in the archive of the data of the entry, right after its local header
+	 */
+	public int getDataOffset(Entry entry) throws IOException {
+		if(closed) throw new IOException("zip reader closed");
+		int pos = (int) entry.localHeaderOffset;
+		if(pos + LOCAL_HEADER_SIZE > buffer.limit() || buffer.getInt(pos) != LOCAL_HEADER_SIGNATURE)
+			throw new ZipException("invalid LOC header (bad signature) for " + entry.name);
+		int dataStart = pos + LOCAL_HEADER_SIZE + u16(pos + 26) + u16(pos + 28);
+		if(dataStart + entry.compressedSize > buffer.limit()) throw new EOFException("truncated entry " + entry.name);
+		return dataStart;
+	}
+	public InputStream getInputStream(Entry entry) throws IOException {
+		InputStream raw = new ByteBufferInputStream(getRawData(entry));
+		switch(entry.method) {
+			case ZipEntry.STORED:
+				return raw;
+			case ZipEntry.DEFLATED:
+				return new EntryInflaterInputStream(raw, entry.size);
+			default:
+				throw new ZipException("unsupported compression method " + entry.method + " of " + entry.name);
+		}
+	}
+	public byte[] readAllBytes(Entry entry) throws IOException {
+		if(entry.size > Integer.MAX_VALUE - 8) throw new IOException("entry " + entry.name + " is too large");
+		byte[] bytes = new byte[(int) entry.size];
+		try(InputStream in = getInputStream(entry)) {
+			IOUtils.readFully(in, bytes);
+		}
+		return bytes;
+	}
+
+	@Override
+	public void close() {
+		if(closed) return;
+		closed = true;
+		if(mapping != null) unmap(mapping);
+	}
+
+	private static final Method INVOKE_CLEANER;
+	private static final Object UNSAFE;
+	static {
+		Method invokeCleaner = null;
+		Object unsafe = null;
+		try { // Java 9+
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			java.lang.reflect.Field f = unsafeClass.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException ignored) {}
+		INVOKE_CLEANER = invokeCleaner;
+		UNSAFE = unsafe;
+	}
+	/**
+	 * Releases a mapped buffer right away instead of waiting for the GC, so the file is not kept locked on Windows.
+	 * The buffer must be the one returned by {@link FileChannel#map}, the cleaner rejects duplicates and slices of it.
+	 */
+	public static void unmap(ByteBuffer buffer) {
+		if(!buffer.isDirect()) return;
+		try {
+			if(INVOKE_CLEANER != null) INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			else { // Java 8
+				Method cleaner = buffer.getClass().getMethod("cleaner");
+				cleaner.setAccessible(true);
+				Object c = cleaner.invoke(buffer);
+				if(c != null) c.getClass().getMethod("clean").invoke(c);
+			}
+		} catch (ReflectiveOperationException | RuntimeException ignored) {} // left to the GC
+	}
+
+	public static class Entry {
+		final String name;
+		final int flags;
+		final int method;
+		final int dosTime;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		final long localHeaderOffset;
+		Entry(String name, int flags, int method, int dosTime, long crc, long compressedSize, long size, long localHeaderOffset) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+		public String getName() {
+			return name;
+		}
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+		public int getMethod() {
+			return method;
+		}
+		/**
+		 * @return the last modification time in MS-DOS format, as stored in the archive
+		 */
+		public int getDosTime() {
+			return dosTime;
+		}
+		public long getCrc() {
+			return crc;
+		}
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+		public long getSize() {
+			return size;
+		}
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(len == 0) return 0;
+			if(!buffer.hasRemaining()) return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+	private static class EntryInflaterInputStream extends InflaterInputStream {
+		private final long size;
+		private long read;
+		private boolean eof;
+		private boolean closed;
+		EntryInflaterInputStream(InputStream in, long size) {
+			super(in, new Inflater(true), (int) Math.max(64, Math.min(65536, size)));
+			this.size = size;
+		}
+		@Override
+		protected void fill() throws IOException {
+			if(eof) throw new EOFException("Unexpected end of ZLIB input stream");
+			len = in.read(buf, 0, buf.length);
+			if(len == -1) { // the nowrap inflater may need an extra dummy byte
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n > 0) read += n;
+			return n;
+		}
+		@Override
+		public int available() throws IOException {
+			if(closed) return 0;
+			return (int) Math.min(Integer.MAX_VALUE, size - read);
+		}
+		@Override
+		public void close() throws IOException {
+			if(!closed) {
+				closed = true;
+				super.close();
+				inf.end();
+			}
+		}
+	}
+}
\ No newline at end of file
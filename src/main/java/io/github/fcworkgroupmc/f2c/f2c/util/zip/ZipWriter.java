@@ -0,0 +1,280 @@
+/*
+ *  Copyright (C) 2020  FCWorkgroupMC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.fcworkgroupmc.f2c.f2c.util.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader.*;
+
+/**
+ * Writes a zip archive whose entries are either compressed by the writer or copied as already compressed data.
+ * <p>
+ * Every entry is written with its sizes and CRC in the local header, so no data descriptors are used.
+ * A writer which does not compress stores every entry, inflating the copied entries if needed.
+ */
+public class ZipWriter implements Closeable {
+	/** the DOS time of 1980-01-01 00:00, for generated entries that should not depend on when they are written */
+	public static final int DOS_EPOCH = 0x00210000;
+	private static final int UTF8_FLAG = 0x800;
+
+	private final OutputStream out;
+	private final boolean compress;
+	private final List<CentralRecord> records = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private final byte[] scratch = new byte[8192];
+	private long offset;
+	private boolean finished;
+	public ZipWriter(OutputStream out) {
+		this(out, true);
+	}
+	public ZipWriter(OutputStream out, boolean compress) {
+		this.out = new BufferedOutputStream(out, 65536);
+		this.compress = compress;
+	}
+
+	/**
+	 * Writes an entry, deflating the given data if this writer compresses.
+	 */
+	public void write(String name, byte[] data, int dosTime) throws IOException {
+		if(!compress) {
+			writeStored(name, ByteBuffer.wrap(data), dosTime);
+			return;
+		}
+		write(name, deflate(deflater, scratch, data), dosTime);
+	}
+	/**
+	 * Writes an entry deflated ahead of time by {@link #deflate(byte[])}. Only a writer which compresses accepts it.
+	 */
+	public void write(String name, Deflated deflated, int dosTime) throws IOException {
+		if(!compress) throw new ZipException("ZipWriter does not compress, cannot write deflated entry " + name);
+		writeRaw(name, ZipEntry.DEFLATED, deflated.crc, deflated.size, dosTime, ByteBuffer.wrap(deflated.data));
+	}
+	/**
+	 * Deflates data to be written later, so that entries can be compressed by several threads
+	 * while a single writer only appends the compressed data.
+	 */
+	public static Deflated deflate(byte[] data) {
+		return deflate(DEFLATER.get(), new byte[8192], data);
+	}
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+	private static Deflated deflate(Deflater deflater, byte[] scratch, byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		while(!deflater.finished()) {
+			int n = deflater.deflate(scratch);
+			compressed.write(scratch, 0, n);
+		}
+		return new Deflated(compressed.toByteArray(), crc.getValue(), data.length);
+	}
+	public boolean isCompressing() {
+		return compress;
+	}
+	/**
+	 * Writes an entry without compressing it.
+	 */
+	public void writeStored(String name, ByteBuffer data, int dosTime) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(data.duplicate());
+		writeRaw(name, ZipEntry.STORED, crc.getValue(), data.remaining(), dosTime, data);
+	}
+	/**
+	 * Writes the content of a file as an entry without compressing it.
+	 */
+	public void writeStored(String name, Path file, int dosTime) throws IOException {
+		ByteBuffer data;
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			writeStored(name, data, dosTime);
+		} finally {
+			unmap(data);
+		}
+	}
+	public void writeDirectory(String name, int dosTime) throws IOException {
+		writeRaw(name, ZipEntry.STORED, 0, 0, dosTime, ByteBuffer.allocate(0));
+	}
+	/**
+	 * Copies an entry of another archive without inflating it, keeping its compression method, CRC and sizes.
+	 * If this writer does not compress, a compressed entry is inflated and stored.
+	 */
+	public void copy(ZipReader reader, ZipReader.Entry entry) throws IOException {
+		if(!compress && entry.method != ZipEntry.STORED) {
+			writeRaw(entry.name, ZipEntry.STORED, entry.crc, entry.size, entry.dosTime, ByteBuffer.wrap(reader.readAllBytes(entry)));
+			return;
+		}
+		writeRaw(entry.name, entry.method, entry.crc, entry.size, entry.dosTime, reader.getRawData(entry));
+	}
+	/**
+	 * Writes an entry whose data is already stored with the given method.
+	 */
+	public void writeRaw(String name, int method, long crc, long size, int dosTime, ByteBuffer data) throws IOException {
+		if(finished) throw new ZipException("ZipWriter is already finished");
+		if(!names.add(name)) throw new ZipException("duplicate entry: " + name);
+		if(offset > 0xFFFFFFFEL || size > 0xFFFFFFFEL || records.size() >= 0xFFFF)
+			throw new ZipException("ZIP64 archives are not supported");
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		CentralRecord record = new CentralRecord(nameBytes, isAscii(nameBytes) ? 0 : UTF8_FLAG, method, dosTime, crc,
+				data.remaining(), size, offset);
+		records.add(record);
+
+		writeInt(LOCAL_HEADER_SIGNATURE);
+		writeShort(versionNeeded(method));
+		writeShort(record.flags);
+		writeShort(method);
+		writeInt(dosTime);
+		writeInt((int) crc);
+		writeInt((int) record.compressedSize);
+		writeInt((int) size);
+		writeShort(nameBytes.length);
+		writeShort(0);
+		writeBytes(nameBytes, 0, nameBytes.length);
+		if(data.hasArray()) {
+			writeBytes(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		} else {
+			ByteBuffer dup = data.duplicate();
+			while(dup.hasRemaining()) {
+				int n = Math.min(scratch.length, dup.remaining());
+				dup.get(scratch, 0, n);
+				writeBytes(scratch, 0, n);
+			}
+		}
+	}
+
+	public void finish() throws IOException {
+		if(finished) return;
+		finished = true;
+		long centralStart = offset;
+		for(CentralRecord record : records) {
+			writeInt(CENTRAL_HEADER_SIGNATURE);
+			writeShort(20); // version made by
+			writeShort(versionNeeded(record.method));
+			writeShort(record.flags);
+			writeShort(record.method);
+			writeInt(record.dosTime);
+			writeInt((int) record.crc);
+			writeInt((int) record.compressedSize);
+			writeInt((int) record.size);
+			writeShort(record.name.length);
+			writeShort(0); // extra length
+			writeShort(0); // comment length
+			writeShort(0); // disk number
+			writeShort(0); // internal attributes
+			writeInt(0); // external attributes
+			writeInt((int) record.localHeaderOffset);
+			writeBytes(record.name, 0, record.name.length);
+		}
+		long centralSize = offset - centralStart;
+		if(centralStart > 0xFFFFFFFEL) throw new ZipException("ZIP64 archives are not supported");
+		writeInt(END_SIGNATURE);
+		writeShort(0);
+		writeShort(0);
+		writeShort(records.size());
+		writeShort(records.size());
+		writeInt((int) centralSize);
+		writeInt((int) centralStart);
+		writeShort(0);
+		out.flush();
+	}
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	private static int versionNeeded(int method) {
+		return method == ZipEntry.DEFLATED ? 20 : 10;
+	}
+	private static boolean isAscii(byte[] bytes) {
+		for(byte b : bytes) if(b < 0) return false;
+		return true;
+	}
+	private void writeShort(int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+		offset += 2;
+	}
+	private void writeInt(int v) throws IOException {
+		writeShort(v & 0xFFFF);
+		writeShort((v >>> 16) & 0xFFFF);
+	}
+	private void writeBytes(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		offset += len;
+	}
+
+	/**
+	 * Data deflated by {@link #deflate(byte[])}, with the CRC and size of the original data.
+	 */
+	public static class Deflated {
+		final byte[] data;
+		final long crc;
+		final long size;
+		Deflated(byte[] data, long crc, long size) {
+			this.data = data;
+			this.crc = crc;
+			this.size = size;
+		}
+	}
+	private static class CentralRecord {
+		final byte[] name;
+		final int flags;
+		final int method;
+		final int dosTime;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		final long localHeaderOffset;
+		CentralRecord(byte[] name, int flags, int method, int dosTime, long crc, long compressedSize, long size, long localHeaderOffset) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+}
\ No newline at end of file
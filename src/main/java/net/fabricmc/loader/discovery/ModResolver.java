@@ -38,6 +38,8 @@ import com.google.common.jimfs.PathType;
 import com.google.gson.*;
 
 import io.github.fcworkgroupmc.f2c.f2c.fabric.FabricLoader;
+import io.github.fcworkgroupmc.f2c.f2c.util.HashUtil;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader;
 import net.fabricmc.loader.api.metadata.ModDependency;
 import net.fabricmc.loader.game.GameProvider.BuiltinMod;
 import net.fabricmc.loader.api.Version;
@@ -59,6 +61,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
@@ -85,6 +88,7 @@ public class ModResolver {
 			.build()
 	);
 	private static final Map<String, List<Path>> inMemoryCache = new ConcurrentHashMap<>();
+	private static final Map<String, Path> nestedJars = new ConcurrentHashMap<>(); // F2C - nested JARs in the store by content hash
 	private static final Pattern MOD_ID_PATTERN = Pattern.compile("[a-z][a-z0-9-_]{1,63}");
 	private static final Object launcherSyncObject = new Object();
 
@@ -437,7 +441,8 @@ public class ModResolver {
 
 		@Override
 		protected void compute() {
-			FileSystemUtil.FileSystemDelegate jarFs;
+//			FileSystemUtil.FileSystemDelegate jarFs;
+			ZipReader modJar; // F2C - Read mod JARs with ZipReader instead of a zip file system
 			Path path, modJson, rootDir;
 			URL normalizedUrl;
 
@@ -455,6 +460,7 @@ public class ModResolver {
 				// Directory
 				modJson = path.resolve("fabric.mod.json");
 				rootDir = path;
+				modJar = null; // F2C
 
 				if (loader.isDevelopmentEnvironment() && !Files.exists(modJson)) {
 					loader.getLogger().warn("Adding directory " + path + " to mod classpath in development environment - workaround for Gradle splitting mods into two directories");
@@ -465,106 +471,151 @@ public class ModResolver {
 			} else {
 				// JAR file
 				try {
-					jarFs = FileSystemUtil.getJarFileSystem(path, false);
-					modJson = jarFs.get().getPath("fabric.mod.json");
-					rootDir = jarFs.get().getRootDirectories().iterator().next();
+//					jarFs = FileSystemUtil.getJarFileSystem(path, false);
+//					modJson = jarFs.get().getPath("fabric.mod.json");
+//					rootDir = jarFs.get().getRootDirectories().iterator().next();
+					modJar = ZipReader.open(path); // F2C
+					modJson = null;
+					rootDir = null;
 				} catch (IOException e) {
 					throw new RuntimeException("Failed to open mod JAR at " + path + "!");
 				}
 			}
 
-			LoaderModMetadata[] info;
-
-			try (InputStream stream = Files.newInputStream(modJson)) {
-				info = ModMetadataParser.getMods(loader, stream);
-			} catch (JsonParseException e) {
-				throw new RuntimeException(String.format("Mod at \"%s\" has an invalid fabric.mod.json file!", path), e);
-			} catch (NoSuchFileException e) {
-				info = new LoaderModMetadata[0];
-			} catch (IOException e) {
-				throw new RuntimeException(String.format("Failed to open fabric.mod.json for mod at \"%s\"!", path), e);
-			} catch (Throwable t) {
-				throw new RuntimeException(String.format("Failed to parse mod metadata for mod at \"%s\"", path), t);
-			}
-
-			for (LoaderModMetadata i : info) {
-				ModCandidate candidate = new ModCandidate(i, normalizedUrl, depth);
-				boolean added;
+			try { // F2C - Close the mod JAR even if reading it fails
+				LoaderModMetadata[] info;
 
-				if (candidate.getInfo().getId() == null || candidate.getInfo().getId().isEmpty()) {
-					throw new RuntimeException(String.format("Mod file `%s` has no id", candidate.getOriginUrl().getFile()));
+//				try (InputStream stream = Files.newInputStream(modJson)) {
+				try (InputStream stream = openModJson(modJar, modJson)) { // F2C
+					info = ModMetadataParser.getMods(loader, stream);
+				} catch (JsonParseException e) {
+					throw new RuntimeException(String.format("Mod at \"%s\" has an invalid fabric.mod.json file!", path), e);
+				} catch (NoSuchFileException e) {
+					info = new LoaderModMetadata[0];
+				} catch (IOException e) {
+					throw new RuntimeException(String.format("Failed to open fabric.mod.json for mod at \"%s\"!", path), e);
+				} catch (Throwable t) {
+					throw new RuntimeException(String.format("Failed to parse mod metadata for mod at \"%s\"", path), t);
 				}
 
-				if (!MOD_ID_PATTERN.matcher(candidate.getInfo().getId()).matches()) {
-					List<String> errorList = new ArrayList<>();
-					isModIdValid(candidate.getInfo().getId(), errorList);
-					StringBuilder fullError = new StringBuilder("Mod id `");
-					fullError.append(candidate.getInfo().getId()).append("` does not match the requirements because");
+				for (LoaderModMetadata i : info) {
+					ModCandidate candidate = new ModCandidate(i, normalizedUrl, depth);
+					boolean added;
 
-					if (errorList.size() == 1) {
-						fullError.append(" it ").append(errorList.get(0));
-					} else {
-						fullError.append(":");
-						for (String error : errorList) {
-							fullError.append("\n  - It ").append(error);
-						}
+					if (candidate.getInfo().getId() == null || candidate.getInfo().getId().isEmpty()) {
+						throw new RuntimeException(String.format("Mod file `%s` has no id", candidate.getOriginUrl().getFile()));
 					}
 
-					throw new RuntimeException(fullError.toString());
-				}
+					if (!MOD_ID_PATTERN.matcher(candidate.getInfo().getId()).matches()) {
+						List<String> errorList = new ArrayList<>();
+						isModIdValid(candidate.getInfo().getId(), errorList);
+						StringBuilder fullError = new StringBuilder("Mod id `");
+						fullError.append(candidate.getInfo().getId()).append("` does not match the requirements because");
 
-				added = candidatesById.computeIfAbsent(candidate.getInfo().getId(), ModCandidateSet::new).add(candidate);
+						if (errorList.size() == 1) {
+							fullError.append(" it ").append(errorList.get(0));
+						} else {
+							fullError.append(":");
+							for (String error : errorList) {
+								fullError.append("\n  - It ").append(error);
+							}
+						}
 
-				if (!added) {
-					loader.getLogger().debug(candidate.getOriginUrl() + " already present as " + candidate);
-				} else {
-					loader.getLogger().debug("Adding " + candidate.getOriginUrl() + " as " + candidate);
-
-					List<Path> jarInJars = inMemoryCache.computeIfAbsent(candidate.getOriginUrl().toString(), (u) -> {
-						loader.getLogger().debug("Searching for nested JARs in " + candidate);
-						Collection<NestedJarEntry> jars = candidate.getInfo().getJars();
-						List<Path> list = new ArrayList<>(jars.size());
-
-						jars.stream()
-							.map((j) -> rootDir.resolve(j.getFile().replace("/", rootDir.getFileSystem().getSeparator())))
-							.forEach((modPath) -> {
-								if (!Files.isDirectory(modPath) && modPath.toString().endsWith(".jar")) {
-									// TODO: pre-check the JAR before loading it, if possible
-									loader.getLogger().debug("Found nested JAR: " + modPath);
-									Path dest = inMemoryFs.getPath(UUID.randomUUID() + ".jar");
-
-									try {
-										Files.copy(modPath, dest);
-									} catch (IOException e) {
-										throw new RuntimeException("Failed to load nested JAR " + modPath + " into memory (" + dest + ")!", e);
-									}
+						throw new RuntimeException(fullError.toString());
+					}
 
-									list.add(dest);
-								}
-							});
-
-						return list;
-					});
-
-					if (!jarInJars.isEmpty()) {
-						invokeAll(
-							jarInJars.stream()
-								.map((p) -> {
-									try {
-										return new UrlProcessAction(loader, candidatesById, UrlUtil.asUrl(p.normalize()), depth + 1);
-									} catch (UrlConversionException e) {
-										throw new RuntimeException("Failed to turn path '" + p.normalize() + "' into URL!", e);
+					added = candidatesById.computeIfAbsent(candidate.getInfo().getId(), ModCandidateSet::new).add(candidate);
+
+					if (!added) {
+						loader.getLogger().debug(candidate.getOriginUrl() + " already present as " + candidate);
+					} else {
+						loader.getLogger().debug("Adding " + candidate.getOriginUrl() + " as " + candidate);
+
+						List<Path> jarInJars = inMemoryCache.computeIfAbsent(candidate.getOriginUrl().toString(), (u) -> {
+							loader.getLogger().debug("Searching for nested JARs in " + candidate);
+							Collection<NestedJarEntry> jars = candidate.getInfo().getJars();
+							List<Path> list = new ArrayList<>(jars.size());
+
+							jars.stream()
+//								.map((j) -> rootDir.resolve(j.getFile().replace("/", rootDir.getFileSystem().getSeparator())))
+//								.forEach((modPath) -> {
+//									if (!Files.isDirectory(modPath) && modPath.toString().endsWith(".jar")) {
+								.map(NestedJarEntry::getFile) // F2C - Read nested JARs from the ZipReader of the mod JAR
+								.forEach((file) -> {
+									Path modPath = modJar == null ? rootDir.resolve(file.replace("/", rootDir.getFileSystem().getSeparator())) : null;
+									if ((modJar != null || !Files.isDirectory(modPath)) && file.endsWith(".jar")) {
+										// TODO: pre-check the JAR before loading it, if possible
+										loader.getLogger().debug("Found nested JAR: " + (modPath != null ? modPath : file));
+//										Path dest = inMemoryFs.getPath(UUID.randomUUID() + ".jar");
+										Path dest; // F2C - Store identical nested JARs of different mods once
+
+										try {
+//											Files.copy(modPath, dest);
+											byte[] jar = modJar != null ? readNestedJar(modJar, file) : Files.readAllBytes(modPath);
+											dest = nestedJars.computeIfAbsent(HashUtil.sha256(jar), hash -> {
+												Path stored = inMemoryFs.getPath(hash + ".jar");
+												try {
+													Files.write(stored, jar);
+												} catch (IOException e) {
+													throw new UncheckedIOException(e);
+												}
+												return stored;
+											});
+										} catch (IOException | UncheckedIOException e) {
+											throw new RuntimeException("Failed to load nested JAR " + (modPath != null ? modPath : file) + " into memory!", e);
+										}
+
+										list.add(dest);
 									}
-								}).collect(Collectors.toList())
-						);
+								});
+
+							return list;
+						});
+
+						if (!jarInJars.isEmpty()) {
+							invokeAll(
+								jarInJars.stream()
+									.map((p) -> {
+										try {
+											return new UrlProcessAction(loader, candidatesById, UrlUtil.asUrl(p.normalize()), depth + 1);
+										} catch (UrlConversionException e) {
+											throw new RuntimeException("Failed to turn path '" + p.normalize() + "' into URL!", e);
+										}
+									}).collect(Collectors.toList())
+							);
+						}
 					}
 				}
+			} finally {
+				/* if (jarFs != null) {
+					jarFs.close();
+				} */
+				if (modJar != null) {
+					modJar.close(); // F2C - nested JARs were read into memory already
+				}
 			}
+		}
+	}
+
+	// F2C - Read fabric.mod.json and nested JARs with ZipReader
+	private static InputStream openModJson(ZipReader modJar, Path modJson) throws IOException {
+		if (modJar == null) {
+			return Files.newInputStream(modJson);
+		}
+
+		ZipReader.Entry entry = modJar.getEntry("fabric.mod.json");
+		if (entry == null) {
+			throw new NoSuchFileException("fabric.mod.json");
+		}
+		return modJar.getInputStream(entry);
+	}
 
-			/* if (jarFs != null) {
-				jarFs.close();
-			} */
+	private static byte[] readNestedJar(ZipReader modJar, String file) throws IOException {
+		ZipReader.Entry entry = modJar.getEntry(file);
+		if (entry == null) {
+			throw new NoSuchFileException(file);
 		}
+		return modJar.readAllBytes(entry);
 	}
 
 	// F2C - reimplement net.fabricmc.loader.api.FabricLoader and delete net.fabricmc.loader.FabricLoader
@@ -32,7 +32,10 @@
 
 package net.fabricmc.loader.launch.knot;
 
+import io.github.fcworkgroupmc.f2c.f2c.FabricObfProcessor;
 import io.github.fcworkgroupmc.f2c.f2c.Metadata;
+import io.github.fcworkgroupmc.f2c.f2c.launchplugins.fabric.LazyRemapLaunchPlugin;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ClassIndex;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.game.GameProvider;
 import net.fabricmc.loader.game.GameProviders;
@@ -237,12 +240,16 @@ public final class Knot extends FabricLauncherBase {
 	@Override
 	public byte[] getClassByteArray(String name, boolean runTransformers) throws IOException {
 		// F2C - Use modlauncher's TransformingClassLoader
-		byte[] bytes = new byte[0];
-		try(InputStream stream = FMLLoader.getLaunchClassLoader().getResourceAsStream(name.replace('.', '/').concat(".class"))) {
-			if (stream != null) {
-				bytes = IOUtils.toByteArray(stream);
+		byte[] bytes = ClassIndex.readRegisteredClass(name.replace('.', '/')); // F2C - Read the classes of processed mods through their index
+		if(bytes == null) {
+			bytes = new byte[0];
+			try(InputStream stream = FMLLoader.getLaunchClassLoader().getResourceAsStream(name.replace('.', '/').concat(".class"))) {
+				if (stream != null) {
+					bytes = IOUtils.toByteArray(stream);
+				}
 			}
 		}
+		if(FabricObfProcessor.LAZY) bytes = LazyRemapLaunchPlugin.remap(name, bytes); // F2C - Remap classes left unmapped in lazy remap mode
 		if (runTransformers) {
 			if(bytes != null) return FabricTransformer.transform(isDevelopment(), envType, name.replace('/', '.'), bytes);
 //			return classLoader.getDelegate().getPreMixinClassByteArray(name, false);
@@ -32,6 +32,7 @@
 
 package net.fabricmc.loader.launch.knot;
 
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.game.GameProvider;
 import net.fabricmc.loader.launch.common.FabricLauncherBase;
@@ -122,25 +123,35 @@ class KnotClassDelegate {
 						Path path = UrlUtil.asPath(fCodeSourceUrl);
 
 						if (Files.isRegularFile(path)) {
-							URLConnection connection = new URL("jar:" + codeSourceStr + "!/").openConnection();
-							if (connection instanceof JarURLConnection) {
-								manifest = ((JarURLConnection) connection).getManifest();
-								certificates = ((JarURLConnection) connection).getCertificates();
-							}
-
-							if (manifest == null) {
-								try (FileSystemUtil.FileSystemDelegate jarFs = FileSystemUtil.getJarFileSystem(path, false)) {
-									Path manifestPath = jarFs.get().getPath("META-INF/MANIFEST.MF");
-									if (Files.exists(manifestPath)) {
-										try (InputStream stream = Files.newInputStream(manifestPath)) {
-											manifest = new Manifest(stream);
-
-											// TODO
-											/* JarEntry codeEntry = codeSourceJar.getJarEntry(filename);
-											if (codeEntry != null) {
-												codeSource = new CodeSource(codeSourceURL, codeEntry.getCodeSigners());
-											} */
-										}
+//							URLConnection connection = new URL("jar:" + codeSourceStr + "!/").openConnection();
+//							if (connection instanceof JarURLConnection) {
+//								manifest = ((JarURLConnection) connection).getManifest();
+//								certificates = ((JarURLConnection) connection).getCertificates();
+//							}
+//
+//							if (manifest == null) {
+//								try (FileSystemUtil.FileSystemDelegate jarFs = FileSystemUtil.getJarFileSystem(path, false)) {
+//									Path manifestPath = jarFs.get().getPath("META-INF/MANIFEST.MF");
+//									if (Files.exists(manifestPath)) {
+//										try (InputStream stream = Files.newInputStream(manifestPath)) {
+//											manifest = new Manifest(stream);
+//
+//											// TODO
+//											/* JarEntry codeEntry = codeSourceJar.getJarEntry(filename);
+//											if (codeEntry != null) {
+//												codeSource = new CodeSource(codeSourceURL, codeEntry.getCodeSigners());
+//											} */
+//										}
+//									}
+//								}
+//							}
+							// F2C - Read the manifest with ZipReader instead of a JarURLConnection and a zip file system,
+							// the certificates of the root entry of a JarURLConnection were always null
+							try (ZipReader jar = ZipReader.open(path)) {
+								ZipReader.Entry manifestEntry = jar.getEntry("META-INF/MANIFEST.MF");
+								if (manifestEntry != null) {
+									try (InputStream stream = jar.getInputStream(manifestEntry)) {
+										manifest = new Manifest(stream);
 									}
 								}
 							}
@@ -43,6 +43,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import io.github.fcworkgroupmc.f2c.f2c.Metadata;
+import io.github.fcworkgroupmc.f2c.f2c.util.zip.ZipReader;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
@@ -84,42 +85,44 @@ public final class McVersionLookup {
 
 		// check various known files for version information
 
-		try (FileSystemUtil.FileSystemDelegate jarFs = FileSystemUtil.getJarFileSystem(gameJar, false)) {
-			FileSystem fs = jarFs.get();
-			Path file;
+//		try (FileSystemUtil.FileSystemDelegate jarFs = FileSystemUtil.getJarFileSystem(gameJar, false)) {
+//			FileSystem fs = jarFs.get();
+//			Path file;
+		try (ZipReader jar = ZipReader.open(gameJar)) { // F2C - Read the game JAR with ZipReader instead of a zip file system
+			ZipReader.Entry file;
 
 			// version.json - contains version and target release for 18w47b+
-			if (Files.isRegularFile(file = fs.getPath("version.json"))
-					&& (ret = fromVersionJson(Files.newInputStream(file))) != null) {
+			if (isFile(file = jar.getEntry("version.json"))
+					&& (ret = fromVersionJson(jar.getInputStream(file))) != null) {
 				return ret;
 			}
 
 			// constant field RealmsSharedConstants.VERSION_STRING
-			if (Files.isRegularFile(file = fs.getPath("net/minecraft/realms/RealmsSharedConstants.class"))
-					&& (ret = fromAnalyzer(Files.newInputStream(file), new FieldStringConstantVisitor("VERSION_STRING"))) != null) {
+			if (isFile(file = jar.getEntry("net/minecraft/realms/RealmsSharedConstants.class"))
+					&& (ret = fromAnalyzer(jar.getInputStream(file), new FieldStringConstantVisitor("VERSION_STRING"))) != null) {
 				return ret;
 			}
 
 			// constant return value of RealmsBridge.getVersionString (presumably inlined+dead code eliminated VERSION_STRING)
-			if (Files.isRegularFile(file = fs.getPath("net/minecraft/realms/RealmsBridge.class"))
-					&& (ret = fromAnalyzer(Files.newInputStream(file), new MethodConstantRetVisitor("getVersionString"))) != null) {
+			if (isFile(file = jar.getEntry("net/minecraft/realms/RealmsBridge.class"))
+					&& (ret = fromAnalyzer(jar.getInputStream(file), new MethodConstantRetVisitor("getVersionString"))) != null) {
 				return ret;
 			}
 
 			// version-like String constant used in MinecraftServer.run or another MinecraftServer method
-			if (Files.isRegularFile(file = fs.getPath("net/minecraft/server/MinecraftServer.class"))
-					&& (ret = fromAnalyzer(Files.newInputStream(file), new MethodConstantVisitor("run"))) != null) {
+			if (isFile(file = jar.getEntry("net/minecraft/server/MinecraftServer.class"))
+					&& (ret = fromAnalyzer(jar.getInputStream(file), new MethodConstantVisitor("run"))) != null) {
 				return ret;
 			}
 
-			if (Files.isRegularFile(file = fs.getPath("net/minecraft/client/Minecraft.class"))) {
+			if (isFile(file = jar.getEntry("net/minecraft/client/Minecraft.class"))) {
 				// version-like constant return value of a Minecraft method (obfuscated/unknown name)
-				if ((ret = fromAnalyzer(Files.newInputStream(file), new MethodConstantRetVisitor(null))) != null) {
+				if ((ret = fromAnalyzer(jar.getInputStream(file), new MethodConstantRetVisitor(null))) != null) {
 					return ret;
 				}
 
 				// version-like constant passed into Display.setTitle in a Minecraft method (obfuscated/unknown name)
-				if ((ret = fromAnalyzer(Files.newInputStream(file), new MethodStringConstantContainsVisitor("org/lwjgl/opengl/Display", "setTitle"))) != null) {
+				if ((ret = fromAnalyzer(jar.getInputStream(file), new MethodStringConstantContainsVisitor("org/lwjgl/opengl/Display", "setTitle"))) != null) {
 					return ret;
 				}
 			}
@@ -132,6 +135,11 @@ public final class McVersionLookup {
 		return new McVersion(Metadata.mcVersion, getRelease(Metadata.mcVersion));
 	}
 
+	// F2C - ZipReader counterpart of Files.isRegularFile
+	private static boolean isFile(ZipReader.Entry entry) {
+		return entry != null && !entry.isDirectory();
+	}
+
 	private static McVersion fromVersionJson(InputStream is) {
 		try (JsonReader reader = new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
 			String id = null;
@@ -29,6 +29,7 @@ import java.util.Set;
 import io.github.fcworkgroupmc.f2c.f2c.FabricObfProcessor;
 import net.fabricmc.loader.api.FabricLoader;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper; // F2C - for precompiled access wideners
 
 import net.fabricmc.loader.api.ModContainer;
 import net.fabricmc.loader.metadata.LoaderModMetadata;
@@ -41,6 +42,7 @@ public class AccessWidener {
 	public Map<EntryTriple, Access> fieldAccess = new HashMap<>();
 	private Set<String> classes = new LinkedHashSet<>();
 
+	private static final Remapper IDENTITY = new Remapper() {}; // F2C - for precompiled access wideners
 	private final FabricLoader fabricLoader; // F2C - use net.fabricmc.loader.api.FabricLoader instead of net.fabricmc.loader.FabricLoader
 
 	public AccessWidener(FabricLoader fabricLoader) {
@@ -75,17 +77,25 @@ public class AccessWidener {
 			throw new RuntimeException(String.format("Unsupported access widener format (%s)", header[1]));
 		}
 
-		if (!header[2].equals(currentNamespace)) {
+		// F2C - Accept access wideners precompiled to the game naming by FabricObfProcessor, their names are used as-is
+		boolean precompiled = header[2].equals(FabricObfProcessor.getNaming());
+		Remapper remapper = precompiled ? IDENTITY : FabricObfProcessor.REMAPPER;
+		String fileNamespace = precompiled ? currentNamespace : header[2];
+
+//		if (!header[2].equals(currentNamespace)) {
+		if (!fileNamespace.equals(currentNamespace)) {
 			throw new RuntimeException(String.format("Namespace (%s) does not match current runtime namespace (%s)", header[2], currentNamespace));
 		}
 
 		if (namespace != null) {
-			if (!namespace.equals(header[2])) {
+//			if (!namespace.equals(header[2])) {
+			if (!namespace.equals(fileNamespace)) {
 				throw new RuntimeException(String.format("Namespace mismatch, expected %s got %s", namespace, header[2]));
 			}
 		}
 
-		namespace = header[2];
+//		namespace = header[2];
+		namespace = fileNamespace;
 
 		String line;
 
@@ -118,7 +128,7 @@ public class AccessWidener {
 				}
 
 				// F2C - Add remap
-				classAccess.put(FabricObfProcessor.REMAPPER.map(split[2]), applyAccess(access, classAccess.getOrDefault(FabricObfProcessor.REMAPPER.map(split[2]), ClassAccess.DEFAULT), null));
+				classAccess.put(remapper.map(split[2]), applyAccess(access, classAccess.getOrDefault(remapper.map(split[2]), ClassAccess.DEFAULT), null));
 				break;
 			case "field":
 				if (split.length != 5) {
@@ -126,7 +136,7 @@ public class AccessWidener {
 				}
 
 				// F2C - Add remap
-				addOrMerge(fieldAccess, new EntryTriple(FabricObfProcessor.REMAPPER.map(split[2]), FabricObfProcessor.REMAPPER.mapFieldName(split[2], split[3], split[4]), FabricObfProcessor.REMAPPER.mapDesc(split[4])), access, FieldAccess.DEFAULT);
+				addOrMerge(fieldAccess, new EntryTriple(remapper.map(split[2]), remapper.mapFieldName(split[2], split[3], split[4]), remapper.mapDesc(split[4])), access, FieldAccess.DEFAULT);
 				break;
 			case "method":
 				if (split.length != 5) {
@@ -134,7 +144,7 @@ public class AccessWidener {
 				}
 
 				// F2C - Add remap
-				addOrMerge(methodAccess, new EntryTriple(FabricObfProcessor.REMAPPER.map(split[2]), FabricObfProcessor.REMAPPER.mapMethodName(split[2], split[3], split[4]), FabricObfProcessor.REMAPPER.mapMethodDesc(split[4])), access, MethodAccess.DEFAULT);
+				addOrMerge(methodAccess, new EntryTriple(remapper.map(split[2]), remapper.mapMethodName(split[2], split[3], split[4]), remapper.mapMethodDesc(split[4])), access, MethodAccess.DEFAULT);
 				break;
 			default:
 				throw new UnsupportedOperationException("Unsupported type " + split[1]);